@@ -0,0 +1,53 @@
+package massim.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full <code>MyAgent.deliberate</code> step, including the map refresh and the message processing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliberateBenchmark {
+
+	@Param({"30", "100"})
+	int mapSize;
+
+	@Param({"4", "8", "16"})
+	int visibility;
+
+	private MASPerception[] perceptions;
+	private MASAgent agent;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		perceptions = PerceptionFixtures.perceptions(PerceptionFixtures.packets(mapSize, visibility, 200));
+		agent = StartAgents.createAgents("localhost", 0, 1, "").get(0);
+		agent.setWatchdogEnabled(false);
+		agent.onStart(mapSize, mapSize, visibility);
+		next = 0;
+	}
+
+	@Benchmark
+	public Action deliberate() {
+		final MASPerception percept = perceptions[next];
+		next = (next + 1) % perceptions.length;
+		return agent.deliberate(percept);
+	}
+}
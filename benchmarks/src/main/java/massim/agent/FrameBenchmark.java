@@ -0,0 +1,92 @@
+package massim.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing and parsing of the packets received from the server: the frame reader, the DOM parsing of
+ * <code>AbstractAgent.receiveDocument</code> and the streaming parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+	@Param({"30", "100"})
+	int mapSize;
+
+	@Param({"4", "8", "16"})
+	int visibility;
+
+	private byte[][] packets;
+	private byte[] stream;
+	private AbstractAgent agent;
+	private PerceptionParser parser;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		packets = PerceptionFixtures.packets(mapSize, visibility, 200);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] packet : packets) {
+			out.write(packet);
+			out.write(0);
+		}
+		stream = out.toByteArray();
+
+		agent = new AbstractAgent() { };
+		parser = new PerceptionParser();
+		next = 0;
+	}
+
+	private byte[] nextPacket() {
+		final byte[] packet = packets[next];
+		next = (next + 1) % packets.length;
+		return packet;
+	}
+
+	/** Splits the whole recorded stream into frames, the result is per all the packets. */
+	@Benchmark
+	public int frameReader() throws Exception {
+		final FrameReader reader = new FrameReader();
+		final ByteArrayInputStream input = new ByteArrayInputStream(stream);
+		int frames = 0;
+		while (true) {
+			while (reader.next()) {
+				frames++;
+			}
+			if (reader.fill(input) < 0) return frames;
+		}
+	}
+
+	@Benchmark
+	public Document domParse() throws Exception {
+		final byte[] packet = nextPacket();
+		return agent.parseDocument(packet, 0, packet.length);
+	}
+
+	@Benchmark
+	public MASPerception streamingParse() throws Exception {
+		final byte[] packet = nextPacket();
+		parser.parse(packet, 0, packet.length);
+		return parser.getPerception();
+	}
+}
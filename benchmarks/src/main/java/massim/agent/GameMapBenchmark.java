@@ -0,0 +1,134 @@
+package massim.agent;
+
+import massim.agent.student.game.AStarPlanner;
+import massim.agent.student.game.BitboardMapStore;
+import massim.agent.student.game.CharMapStore;
+import massim.agent.student.game.DStarLitePlanner;
+import massim.agent.student.game.DistanceFields;
+import massim.agent.student.game.FrontierIndex;
+import massim.agent.student.game.GameMap;
+import massim.agent.student.game.HierarchicalPlanner;
+import massim.agent.student.game.JumpPointPlanner;
+import massim.agent.student.game.PathPlanner;
+import massim.agent.student.game.SparseMapStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-step operations of the <code>GameMap</code>: refresh with the cell percepts, move planning, path planning by all the planners,
+ * the move looked up in the distance field and the scouting target from the frontier index, on all the storages of the map cells. The
+ * incremental planner, the distance fields and the frontier index listen to a map of their own, so the refresh is measured without
+ * listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameMapBenchmark {
+
+	@Param({"30", "100", "1000"})
+	int mapSize;
+
+	@Param({"4", "8", "16"})
+	int visibility;
+
+	@Param({"char", "bitboard", "sparse"})
+	String store;
+
+	private MASPerception[] perceptions;
+	private Position[] positions;
+	private Position goal;
+	private GameMap map, listenedMap;
+	private PathPlanner aStar, jumpPoint, dStarLite, hierarchical;
+	private DistanceFields distanceFields;
+	private FrontierIndex frontiers;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		perceptions = PerceptionFixtures.perceptions(PerceptionFixtures.packets(mapSize, visibility, 200));
+		positions = new Position[perceptions.length];
+		map = newMap();
+		listenedMap = newMap();
+		for (int i = 0; i < perceptions.length; i++) {
+			positions[i] = new Position(perceptions[i].getPosX(), perceptions[i].getPosY());
+			map.refresh(positions[i], perceptions[i].getCells());
+			listenedMap.refresh(positions[i], perceptions[i].getCells());
+		}
+		goal = new Position(2, 2);
+		aStar = new AStarPlanner(map);
+		jumpPoint = new JumpPointPlanner(map);
+		dStarLite = new DStarLitePlanner(listenedMap);
+		hierarchical = new HierarchicalPlanner(listenedMap);
+		distanceFields = new DistanceFields(listenedMap);
+		frontiers = new FrontierIndex(listenedMap, visibility);
+		next = 0;
+	}
+
+	private GameMap newMap() {
+		if (store.equals("bitboard")) return new GameMap(new BitboardMapStore(mapSize, mapSize));
+		if (store.equals("sparse")) return new GameMap(new SparseMapStore(mapSize, mapSize));
+		return new GameMap(new CharMapStore(mapSize, mapSize));
+	}
+
+	private int nextIndex() {
+		final int index = next;
+		next = (next + 1) % perceptions.length;
+		return index;
+	}
+
+	@Benchmark
+	public GameMap refresh() {
+		final int i = nextIndex();
+		map.refresh(positions[i], perceptions[i].getCells());
+		return map;
+	}
+
+	@Benchmark
+	public Action planMove() {
+		return map.planMove(positions[nextIndex()], goal);
+	}
+
+	@Benchmark
+	public int frontierTarget() {
+		return frontiers.getBest();
+	}
+
+	@Benchmark
+	public int aStarPlan() {
+		return aStar.plan(map.getGrid().index(positions[nextIndex()]), map.getGrid().index(goal));
+	}
+
+	@Benchmark
+	public int jumpPointPlan() {
+		return jumpPoint.plan(map.getGrid().index(positions[nextIndex()]), map.getGrid().index(goal));
+	}
+
+	@Benchmark
+	public int dStarLitePlan() {
+		return dStarLite.plan(map.getGrid().index(positions[nextIndex()]), map.getGrid().index(goal));
+	}
+
+	@Benchmark
+	public int hierarchicalPlan() {
+		return hierarchical.plan(map.getGrid().index(positions[nextIndex()]), map.getGrid().index(goal));
+	}
+
+	@Benchmark
+	public Action distanceFieldMove() {
+		return distanceFields.getNextAction(map.getGrid().index(positions[nextIndex()]), map.getGrid().index(goal));
+	}
+}
@@ -0,0 +1,51 @@
+package massim.agent;
+
+import cz.agents.alite.communication.DefaultCommunicator;
+import cz.agents.alite.communication.Message;
+import cz.agents.alite.communication.content.Content;
+import massim.agent.student.utils.MessageData;
+import massim.agent.student.utils.MessageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation and parsing of the messages exchanged by the agents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageUtilsBenchmark {
+
+	private Position position;
+	private Message message;
+
+	@Setup
+	public void setup() {
+		position = new Position(12, 17);
+		message = new DefaultCommunicator("bench").createMessage(MessageUtils.create("myPosition", position));
+	}
+
+	@Benchmark
+	public Content create() {
+		return MessageUtils.create("myPosition", position);
+	}
+
+	@Benchmark
+	public Position parse() {
+		final MessageData data = MessageUtils.parse(message);
+		return MessageUtils.getData(data);
+	}
+}
@@ -0,0 +1,121 @@
+package massim.agent;
+
+import massim.agent.student.game.GameMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the cell percepts in <code>MASAgent.processRequestAction</code> from an already parsed DOM, and the whole streaming
+ * path from the packet to the sent action, with the cells refreshing the map either from the perception or through the cell sink.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerceptionBenchmark {
+
+	@Param({"30", "100"})
+	int mapSize;
+
+	@Param({"4", "8", "16"})
+	int visibility;
+
+	private byte[][] packets;
+	private Element[] perceptions;
+	private Element target;
+	private BenchAgent agent, fusedAgent;
+	private int next;
+
+	/** Agent refreshing its map and handing the perceptions to the blackhole. */
+	private static final class BenchAgent extends MASAgent {
+		final GameMap map;
+		Blackhole blackhole;
+
+		BenchAgent(int mapSize, boolean fused) {
+			super("localhost", 0, "bench", "1");
+			setWatchdogEnabled(false);
+			map = new GameMap(mapSize, mapSize);
+			if (fused) {
+				setCellSink(map.getCellSink());
+			}
+		}
+
+		@Override
+		protected void onStart(int gridWidth, int gridHeight, int visibility) {
+		}
+
+		@Override
+		protected Action deliberate(MASPerception percept) {
+			map.refresh(new Position(percept.getPosX(), percept.getPosY()), percept.getCells());
+			blackhole.consume(percept);
+			return Action.SKIP;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		packets = PerceptionFixtures.packets(mapSize, visibility, 200);
+		final OutputStream discard = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		agent = new BenchAgent(mapSize, false);
+		agent.attachOutputStream(discard);
+		fusedAgent = new BenchAgent(mapSize, true);
+		fusedAgent.attachOutputStream(discard);
+
+		perceptions = new Element[packets.length];
+		for (int i = 0; i < packets.length; i++) {
+			final Document doc = agent.parseDocument(packets[i], 0, packets[i].length);
+			perceptions[i] = (Element) doc.getElementsByTagName("perception").item(0);
+		}
+		target = agent.documentBuilderFactory.newDocumentBuilder().newDocument().createElement("action");
+		next = 0;
+	}
+
+	@Benchmark
+	public void domCellPercepts(Blackhole blackhole) {
+		agent.blackhole = blackhole;
+		final Element perception = perceptions[next];
+		next = (next + 1) % perceptions.length;
+		agent.processRequestAction(perception, target, 0, 2000);
+	}
+
+	@Benchmark
+	public boolean streamingPacket(Blackhole blackhole) {
+		agent.blackhole = blackhole;
+		final byte[] packet = packets[next];
+		next = (next + 1) % packets.length;
+		return agent.processPacket(packet, 0, packet.length);
+	}
+
+	@Benchmark
+	public boolean fusedPacket(Blackhole blackhole) {
+		fusedAgent.blackhole = blackhole;
+		final byte[] packet = packets[next];
+		next = (next + 1) % packets.length;
+		return fusedAgent.processPacket(packet, 0, packet.length);
+	}
+}
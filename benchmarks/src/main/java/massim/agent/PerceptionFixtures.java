@@ -0,0 +1,80 @@
+package massim.agent;
+
+import massim.server.GridWorld;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs of the benchmarks: <code>request-action</code> packets as received by an agent. The packets are taken from the session
+ * file given by the <tt>bench.session</tt> system property (see {@link SessionRecorder}), or recorded from an agent walking in the
+ * stand-in world of given size and visibility range.
+ */
+final class PerceptionFixtures {
+
+	/** System property with the session file to take the packets from. */
+	static final String SESSION_PROPERTY = "bench.session";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private PerceptionFixtures() {
+	}
+
+	/** Returns the <code>request-action</code> packets. */
+	static byte[][] packets(int mapSize, int visibility, int count) throws IOException, XMLStreamException {
+		final String session = System.getProperty(SESSION_PROPERTY);
+		return (session == null) ? generate(mapSize, visibility, count) : load(new File(session));
+	}
+
+	/** Decodes given packets into perceptions. */
+	static MASPerception[] perceptions(byte[][] packets) throws XMLStreamException {
+		final PerceptionParser parser = new PerceptionParser();
+		final MASPerception[] perceptions = new MASPerception[packets.length];
+		for (int i = 0; i < packets.length; i++) {
+			parser.parse(packets[i], 0, packets[i].length);
+			perceptions[i] = parser.getPerception();
+		}
+		return perceptions;
+	}
+
+	/** Records the packets of the first of three agents, the agents walk randomly. */
+	private static byte[][] generate(int mapSize, int visibility, int count) {
+		final GridWorld world = GridWorld.createScaled(mapSize, 3, visibility);
+		final Random random = new Random(mapSize * 31 + visibility);
+		final Action[] actions = new Action[3];
+		final Action[] values = Action.values();
+		final StringBuilder sb = new StringBuilder(64 * 1024);
+
+		final byte[][] packets = new byte[count][];
+		for (int step = 0; step < count; step++) {
+			sb.setLength(0);
+			world.appendRequestAction(sb, 0, Integer.toString(step), step, 1000L * step, 1000L * step + 2000);
+			packets[step] = sb.toString().getBytes(UTF_8);
+
+			for (int i = 0; i < actions.length; i++) {
+				actions[i] = values[random.nextInt(values.length)];
+			}
+			world.step(actions, random);
+		}
+		return packets;
+	}
+
+	/** Loads the <code>request-action</code> packets of a recorded session. */
+	private static byte[][] load(File file) throws IOException, XMLStreamException {
+		final SessionReplay replay = new SessionReplay(file);
+		final PerceptionParser parser = new PerceptionParser();
+		final List<byte[]> packets = new ArrayList<byte[]>(replay.getPacketCount());
+		for (int i = 0; i < replay.getPacketCount(); i++) {
+			final byte[] packet = replay.getPacket(i);
+			if (parser.parse(packet, 0, packet.length)) {
+				packets.add(packet);
+			}
+		}
+		return packets.toArray(new byte[packets.size()][]);
+	}
+}
@@ -1,7 +1,9 @@
 package massim.agent;
 
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
@@ -20,7 +22,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.logging.Level;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.logging.Logger;
 
 /**
@@ -37,22 +40,32 @@ public abstract class AbstractAgent {
 	private Socket socket;
 
 	private InputStream inputStream;
+	private final FrameReader frameReader;
 	private OutputStream outputStream;
 	protected String username;
 	private String password;
 
 	protected DocumentBuilderFactory documentBuilderFactory;
 	private TransformerFactory transformerFactory;
+	private final ActionEncoder actionEncoder;
+	/** Action element of the reused response document, see <code>getResponseAction</code>. */
+	private Element responseAction;
+	private volatile SessionRecorder sessionRecorder;
+	private volatile boolean closed;
 
 	protected static Logger logger = Logger.getLogger("agentLog.log");
+	/** Log of the traffic with the server, written to the logger by a background thread. */
+	protected static final TrafficLog trafficLog = new TrafficLog(logger, 1024);
 
 	public AbstractAgent() {
 		networkHost = "localhost";
 		networkPort = 0;
 
 		socket = new Socket();
+		frameReader = new FrameReader();
 		documentBuilderFactory = DocumentBuilderFactory.newInstance();
 		transformerFactory = TransformerFactory.newInstance();
+		actionEncoder = new ActionEncoder();
 	}
 
 	public String getHost() {
@@ -83,14 +96,35 @@ public abstract class AbstractAgent {
 		return password;
 	}
 
+	/**
+	 * Sets the recorder of the packets received from the server. It is closed when the connection ends.
+	 *
+	 * @param sessionRecorder the recorder, null to stop recording
+	 * @see massim.agent.SessionReplay
+	 */
+	public void setSessionRecorder(SessionRecorder sessionRecorder) {
+		this.sessionRecorder = sessionRecorder;
+	}
+
 	public void setPassword(String password) {
 		this.password = password;
 	}
 
+	/**
+	 * Attaches the stream used for sending data to the server. It is used by transports which manage the connection on their own.
+	 *
+	 * @param outputStream stream of the connection to the server
+	 * @see massim.agent.SelectorTransport
+	 */
+	void attachOutputStream(OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
 	/**
 	 * Starts the agent main thread.
 	 *
 	 * @see @link agentThread
+	 * @see massim.agent.AgentRuntime
 	 */
 	public void start() {
 		new Thread() {
@@ -100,6 +134,19 @@ public abstract class AbstractAgent {
 		}.start();
 	}
 
+	/**
+	 * Closes the connection opened by the <code>agentThread</code>, the thread ends as soon as its blocking read fails. When called
+	 * before the thread has connected, the agent does not connect at all.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Provides a easy way for the authentication against a server. It must be called before the agent is bind to the server and the
 	 * outputStream is initialized.
@@ -135,20 +182,7 @@ public abstract class AbstractAgent {
 	 */
 	public boolean receiveAuthenticationResult() throws IOException {
 		try {
-			Document doc = receiveDocument();
-			Element root = doc.getDocumentElement();
-			if (root == null) return false;
-			if (!root.getAttribute("type").equalsIgnoreCase("auth-response")) return false;
-			NodeList nl = root.getChildNodes();
-			Element authresult = null;
-			for (int i = 0; i < nl.getLength(); i++) {
-				Node n = nl.item(i);
-				if (n.getNodeType() == Element.ELEMENT_NODE && n.getNodeName().equalsIgnoreCase("authentication")) {
-					authresult = (Element) n;
-					break;
-				}
-			}
-			if (!authresult.getAttribute("result").equalsIgnoreCase("ok")) return false;
+			return isAuthenticationOk(receiveDocument());
 		} catch (SAXException e) {
 			e.printStackTrace();
 			return false;
@@ -159,8 +193,28 @@ public abstract class AbstractAgent {
 			e.printStackTrace();
 			return false;
 		}
+	}
 
-		return true;
+	/**
+	 * Checks whether the given document is a successful authentication response.
+	 *
+	 * @param doc XML Document received from the server.
+	 * @return true when the document is an <code>auth-response</code> with the result ok, false otherwise.
+	 */
+	boolean isAuthenticationOk(Document doc) {
+		Element root = doc.getDocumentElement();
+		if (root == null) return false;
+		if (!root.getAttribute("type").equalsIgnoreCase("auth-response")) return false;
+		NodeList nl = root.getChildNodes();
+		Element authresult = null;
+		for (int i = 0; i < nl.getLength(); i++) {
+			Node n = nl.item(i);
+			if (n.getNodeType() == Element.ELEMENT_NODE && n.getNodeName().equalsIgnoreCase("authentication")) {
+				authresult = (Element) n;
+				break;
+			}
+		}
+		return authresult != null && authresult.getAttribute("result").equalsIgnoreCase("ok");
 	}
 
 	/**
@@ -188,27 +242,51 @@ public abstract class AbstractAgent {
 	 *
 	 */
 	public byte[] receivePacket() throws IOException, SocketClosedException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		int read = inputStream.read();
-		while (read != 0) {
-			if (read == -1) {
+		receiveFrame();
+		final int offset = frameReader.getFrameOffset();
+		return Arrays.copyOfRange(frameReader.getBuffer(), offset, offset + frameReader.getFrameLength());
+	}
+
+	/**
+	 * Reads from the server until the frame reader holds the next complete packet and writes the packet to the traffic log.
+	 *
+	 * @throws java.io.IOException When the conection have not been initialized.
+	 * @throws massim.agent.AbstractAgent.SocketClosedException
+	 *
+	 */
+	private void receiveFrame() throws IOException, SocketClosedException {
+		while (!frameReader.next()) {
+			if (frameReader.fill(inputStream) < 0) {
 				throw new SocketClosedException();
 			}
-			buffer.write(read);
-			read = inputStream.read();
 		}
-		String s = "Server -> Agent: AgentName " + this.username + "\n" + buffer.toString();
+		logReceived(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength());
+	}
 
-		synchronized (logger) {
-			logger.log(Level.ALL, s);
+	/**
+	 * Writes a packet received from the server to the traffic log and to the session recorder if there is one.
+	 *
+	 * @param raw    buffer holding the packet data
+	 * @param offset offset of the packet in the buffer
+	 * @param length length of the packet
+	 */
+	void logReceived(byte[] raw, int offset, int length) {
+		trafficLog.record(TrafficLog.Direction.INBOUND, username, raw, offset, length);
+		if (sessionRecorder != null) {
+			sessionRecorder.record(raw, offset, length);
 		}
+	}
 
-		return buffer.toByteArray();
+	/** Called once the connection to the server has been closed. */
+	void disconnected() {
+		if (sessionRecorder != null) {
+			sessionRecorder.close();
+		}
 	}
 
 	/**
-	 * Receives a packet from the server using the <code>receivePacket<code> method and converts the received data to a XML Document
-	 * object.
+	 * Receives a packet from the server and converts the received data to a XML Document object. The packet is parsed directly from
+	 * the buffer of the frame reader.
 	 *
 	 * @return A valid XML Document object.
 	 * @throws org.xml.sax.SAXException When the received data is not wellformed.
@@ -220,9 +298,24 @@ public abstract class AbstractAgent {
 	 * @see #receivePacket() receivePacket
 	 */
 	public Document receiveDocument() throws SAXException, IOException, ParserConfigurationException, SocketClosedException {
-		byte[] raw = receivePacket();
-		Document doc = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(raw));
-		return doc;
+		receiveFrame();
+		return parseDocument(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength());
+	}
+
+	/**
+	 * Converts one received packet to a XML Document object.
+	 *
+	 * @param raw    buffer holding the packet data
+	 * @param offset offset of the packet in the buffer
+	 * @param length length of the packet (without the terminating zero)
+	 * @return A valid XML Document object.
+	 * @throws org.xml.sax.SAXException When the received data is not wellformed.
+	 * @throws java.io.IOException      When the data cannot be read.
+	 * @throws javax.xml.parsers.ParserConfigurationException
+	 *
+	 */
+	Document parseDocument(byte[] raw, int offset, int length) throws SAXException, IOException, ParserConfigurationException {
+		return documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(raw, offset, length));
 	}
 
 	/**
@@ -233,8 +326,7 @@ public abstract class AbstractAgent {
 	 *
 	 * @see #doAuthentication(String, String) doAuthentication
 	 * @see #processLogIn() processLogIn
-	 * @see #receiveDocument() receiveDocument
-	 * @see #processMessage(org.w3c.dom.Element) processMessage
+	 * @see #processPacket(byte[], int, int) processPacket
 	 */
 	public void agentThread() {
 		try {
@@ -250,36 +342,71 @@ public abstract class AbstractAgent {
 			}
 			processLogIn();
 			while (true) {
-				Document doc = null;
-				try {
-					doc = receiveDocument();
-				} catch (SAXException e) {
-					e.printStackTrace();
-				} catch (ParserConfigurationException e) {
-					e.printStackTrace();
-				}
-
-				Element el_root = doc.getDocumentElement();
-
-				if (el_root == null) {
-					System.err.println("No document element found");
-					continue;
-				}
-
-				if (el_root.getNodeName().equals("message")) {
-					if (!processMessage(el_root)) break;
-				}
-				else {
-					System.err.println("Unknown document received");
-				}
+				receiveFrame();
+				if (!processPacket(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength())) break;
 			}
 
 		} catch (IOException e) {
-			System.err.println("IOException");
-			e.printStackTrace();
+			if (!closed) {
+				System.err.println("IOException");
+				e.printStackTrace();
+			}
 		} catch (SocketClosedException e) {
 			System.err.println("Socket was closed");
+		} finally {
+			disconnected();
+		}
+	}
+
+	/**
+	 * Processes one packet received from the server. By default the packet is parsed to a XML Document and dispatched by the
+	 * <code>processDocument</code> method, subclasses may decode the packet in a different way.
+	 *
+	 * @param raw    buffer holding the packet data
+	 * @param offset offset of the packet in the buffer
+	 * @param length length of the packet (without the terminating zero)
+	 * @return false when the agent should stop receiving messages, true otherwise.
+	 * @see #processDocument(org.w3c.dom.Document) processDocument
+	 */
+	boolean processPacket(byte[] raw, int offset, int length) {
+		Document doc = null;
+		try {
+			doc = parseDocument(raw, offset, length);
+		} catch (SAXException e) {
+			e.printStackTrace();
+		} catch (ParserConfigurationException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
+		return processDocument(doc);
+	}
+
+	/**
+	 * Dispatches one document received from the server. Documents with the <code>message</code> root element are passed to the
+	 * <code>processMessage</code> method, anything else is reported and ignored.
+	 *
+	 * @param doc XML Document object received from the server, may be null when it could not be parsed.
+	 * @return false when the agent should stop receiving messages, true otherwise.
+	 * @see #processMessage(org.w3c.dom.Element) processMessage
+	 */
+	boolean processDocument(Document doc) {
+		if (doc == null) return true;
+
+		Element el_root = doc.getDocumentElement();
+
+		if (el_root == null) {
+			System.err.println("No document element found");
+			return true;
+		}
+
+		if (el_root.getNodeName().equals("message")) {
+			return processMessage(el_root);
+		}
+		else {
+			System.err.println("Unknown document received");
+		}
+		return true;
 	}
 
 	/**
@@ -327,20 +454,8 @@ public abstract class AbstractAgent {
 				}
 			}
 
-			Document doc = null;
-			try {
-				doc = documentBuilderFactory.newDocumentBuilder().newDocument();
-			} catch (ParserConfigurationException e) {
-				System.err.println("parser config error");
-				e.printStackTrace();
-				System.exit(1);
-			}
-			Element el_response = doc.createElement("message");
-
-			doc.appendChild(el_response);
-			Element el_action = doc.createElement("action");
-			el_response.setAttribute("type", "action");
-			el_response.appendChild(el_action);
+			// only the request-action messages are answered, their response is built in a reused document
+			Element el_action = type.equals("request-action") ? getResponseAction() : null;
 
 			long currenttime = 0;
 			try {
@@ -371,12 +486,13 @@ public abstract class AbstractAgent {
 				processSimulationEnd(el_perception, currenttime);
 			}
 
-			el_action.setAttribute("id", el_perception.getAttribute("id"));
-
 			try {
 
 				// sending of action only for request-action message!!!
-				if (type.equals("request-action")) sendDocument(doc);
+				if (type.equals("request-action") && claimResponse()) {
+					el_action.setAttribute("id", el_perception.getAttribute("id"));
+					sendResponse(el_action);
+				}
 
 			} catch (IOException e) {
 				System.err.println("IO Exception while trying to send action");
@@ -390,6 +506,16 @@ public abstract class AbstractAgent {
 	public void processRequestAction(Element perception, Element target, long currenttime, long deadline) {
 	}
 
+	/**
+	 * Claims the right to send the response to the current <code>request-action</code> message. It is called right before the response
+	 * is sent, the response is not sent when it returns false (e.g. when it has already been answered by other means).
+	 *
+	 * @return true when the response should be sent, false otherwise
+	 */
+	protected boolean claimResponse() {
+		return true;
+	}
+
 	public void processSimulationEnd(Element perception, long currenttime) {
 	}
 
@@ -399,6 +525,81 @@ public abstract class AbstractAgent {
 	public void processLogIn() {
 	}
 
+	/**
+	 * Sends an action response to the server. The response is written from pre-encoded templates, no DOM document is built.
+	 *
+	 * @param actionId id of the perception the action responds to
+	 * @param action   the action to perform
+	 * @throws java.io.IOException
+	 */
+	public void sendAction(String actionId, Action action) throws IOException {
+		synchronized (actionEncoder) {
+			final int length = actionEncoder.encode(actionId, action);
+			final byte[] data = actionEncoder.getBuffer();
+			outputStream.write(data, 0, length);
+			outputStream.flush();
+			trafficLog.record(TrafficLog.Direction.OUTBOUND, username, data, 0, length - 1);
+		}
+	}
+
+	/**
+	 * Returns the empty action element of the response to a <code>request-action</code> message. The response document is built once
+	 * and reused, the element is cleared before every message.
+	 */
+	private Element getResponseAction() {
+		if (responseAction == null) {
+			Document doc = null;
+			try {
+				doc = documentBuilderFactory.newDocumentBuilder().newDocument();
+			} catch (ParserConfigurationException e) {
+				System.err.println("parser config error");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			Element el_response = doc.createElement("message");
+
+			doc.appendChild(el_response);
+			responseAction = doc.createElement("action");
+			el_response.setAttribute("type", "action");
+			el_response.appendChild(responseAction);
+		} else {
+			final NamedNodeMap attributes = responseAction.getAttributes();
+			while (attributes.getLength() > 0) {
+				responseAction.removeAttributeNode((Attr) attributes.item(0));
+			}
+			while (responseAction.hasChildNodes()) {
+				responseAction.removeChild(responseAction.getFirstChild());
+			}
+		}
+		return responseAction;
+	}
+
+	/**
+	 * Sends the response built by the DOM path. Plain action responses are written from the templates by <code>sendAction</code>,
+	 * anything else is serialized by the <code>sendDocument</code> method and its document is not reused.
+	 *
+	 * @param el_action the action element of the response filled by <code>processRequestAction</code>
+	 * @throws java.io.IOException
+	 */
+	private void sendResponse(Element el_action) throws IOException {
+		String type = el_action.getAttribute("type");
+		Action action = null;
+		if (el_action.getAttributes().getLength() == 2 && !el_action.hasChildNodes()) {
+			try {
+				action = Action.valueOf(type.toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				action = null;
+			}
+		}
+		if (action != null && action.name().toLowerCase(Locale.ENGLISH).equals(type)) {
+			sendAction(el_action.getAttribute("id"), action);
+		} else {
+			// the subclass may have changed more than the action element
+			responseAction = null;
+			sendDocument(el_action.getOwnerDocument());
+		}
+	}
+
 	/**
 	 * Sends an specified XML Document to the server.
 	 *
@@ -408,14 +609,13 @@ public abstract class AbstractAgent {
 	public void sendDocument(Document doc) throws IOException {
 
 		try {
-			transformerFactory.newTransformer().transform(new DOMSource(doc), new StreamResult(outputStream));
-
 			ByteArrayOutputStream temp = new ByteArrayOutputStream();
 			transformerFactory.newTransformer().transform(new DOMSource(doc), new StreamResult(temp));
-			String s = "Agent -> Server:\n" + temp.toString();
-			logger.log(Level.ALL, s);
+			byte[] data = temp.toByteArray();
+			outputStream.write(data);
 			outputStream.write(0);
 			outputStream.flush();
+			trafficLog.record(TrafficLog.Direction.OUTBOUND, username, data, 0, data.length);
 		} catch (TransformerConfigurationException e) {
 			System.err.println("transformer config error");
 			e.printStackTrace();
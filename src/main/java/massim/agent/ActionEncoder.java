@@ -0,0 +1,106 @@
+package massim.agent;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Encoder of the action responses. The response has always the same shape, so it is assembled from byte templates encoded once in
+ * advance: the common prefix, the escaped action id and the suffix of the action type including the terminating zero. The id is
+ * escaped the way the JDK Transformer serializes an attribute: the markup characters and the control characters as references, the
+ * supplementary characters (and lone low surrogates) as decimal references and the rest in UTF-8, so the bytes are the same as its
+ * output for the equivalent DOM document. A lone high surrogate is dropped, the Transformer drops it at the end of the value and rejects
+ * it anywhere else.
+ */
+final class ActionEncoder {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] PREFIX =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><message type=\"action\"><action id=\"".getBytes(UTF_8);
+
+	/** Suffixes indexed by the ordinal of the action. */
+	private static final byte[][] SUFFIXES;
+
+	static {
+		final Action[] actions = Action.values();
+		SUFFIXES = new byte[actions.length][];
+		for (Action action : actions) {
+			final byte[] suffix = ("\" type=\"" + action.name().toLowerCase(Locale.ENGLISH) + "\"/></message>").getBytes(UTF_8);
+			// room for the terminating zero
+			SUFFIXES[action.ordinal()] = new byte[suffix.length + 1];
+			System.arraycopy(suffix, 0, SUFFIXES[action.ordinal()], 0, suffix.length);
+		}
+	}
+
+	/** The reusable output buffer. */
+	private byte[] buffer;
+
+	ActionEncoder() {
+		buffer = new byte[128];
+	}
+
+	/**
+	 * Encodes the response with given action into the output buffer.
+	 *
+	 * @param actionId id of the perception the action responds to
+	 * @param action   the action to perform
+	 * @return the length of the encoded response including the terminating zero
+	 */
+	int encode(String actionId, Action action) {
+		final byte[] suffix = SUFFIXES[action.ordinal()];
+		ensureCapacity(PREFIX.length + actionId.length() * 10 + suffix.length);
+
+		int length = PREFIX.length;
+		System.arraycopy(PREFIX, 0, buffer, 0, length);
+		for (int i = 0, n = actionId.length(); i < n; i++) {
+			final char c = actionId.charAt(i);
+			if (c == '&') {
+				length = append(length, "&amp;");
+			} else if (c == '<') {
+				length = append(length, "&lt;");
+			} else if (c == '>') {
+				length = append(length, "&gt;");
+			} else if (c == '"') {
+				length = append(length, "&quot;");
+			} else if (c < 0x20) {
+				length = append(length, "&#" + (int) c + ";");
+			} else if (c < 0x80) {
+				buffer[length++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[length++] = (byte) (0xc0 | (c >> 6));
+				buffer[length++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isLowSurrogate(c)) {
+				length = append(length, "&#" + (int) c + ";");
+			} else if (Character.isHighSurrogate(c)) {
+				if (i + 1 < n && Character.isLowSurrogate(actionId.charAt(i + 1))) {
+					length = append(length, "&#" + actionId.codePointAt(i) + ";");
+					i++;
+				}
+			} else {
+				buffer[length++] = (byte) (0xe0 | (c >> 12));
+				buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[length++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		System.arraycopy(suffix, 0, buffer, length, suffix.length);
+		return length + suffix.length;
+	}
+
+	/** Returns the output buffer holding the last encoded response. */
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	private int append(int position, String ascii) {
+		for (int i = 0, n = ascii.length(); i < n; i++) {
+			buffer[position++] = (byte) ascii.charAt(i);
+		}
+		return position;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (buffer.length < capacity) {
+			buffer = new byte[Math.max(capacity, buffer.length * 2)];
+		}
+	}
+}
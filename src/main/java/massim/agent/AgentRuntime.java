@@ -0,0 +1,155 @@
+package massim.agent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking <code>agentThread</code> of many agents on a shared executor. When the JVM supports virtual threads, every agent
+ * gets its own virtual thread, so thousands of agents cost only a few carrier threads. Otherwise the agents run on platform threads
+ * with a reduced stack size.
+ * <p/>
+ * The concurrency limits the number of agents connected at the same time, the other started agents wait in a queue until some
+ * running agent ends its session.
+ */
+public class AgentRuntime {
+
+	/** Stack size of the platform threads running the agents. */
+	private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+	/** Factory of the virtual threads, null when they are not supported. */
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory("agent-");
+
+	private final ThreadPoolExecutor executor;
+	private final boolean virtual;
+	private final Set<AbstractAgent> agents;
+	private final AtomicInteger running;
+
+	/** Constructor of the AgentRuntime class with unlimited concurrency, preferring the virtual threads. */
+	public AgentRuntime() {
+		this(0, true);
+	}
+
+	/**
+	 * Constructor of the AgentRuntime class.
+	 *
+	 * @param maxConcurrency maximal number of the agents running at the same time, 0 for unlimited
+	 * @param preferVirtual  true to use the virtual threads when they are supported
+	 */
+	public AgentRuntime(int maxConcurrency, boolean preferVirtual) {
+		this.virtual = preferVirtual && VIRTUAL_THREAD_FACTORY != null;
+		final ThreadFactory threadFactory = virtual ? VIRTUAL_THREAD_FACTORY : new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(null, r, "agent-" + counter.getAndIncrement(), PLATFORM_STACK_SIZE);
+			}
+		};
+		if (maxConcurrency > 0) {
+			executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+		} else {
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+					threadFactory);
+		}
+		this.agents = Collections.newSetFromMap(new ConcurrentHashMap<AbstractAgent, Boolean>());
+		this.running = new AtomicInteger();
+	}
+
+	/** Returns <tt>true</tt> IFF the JVM supports the virtual threads. */
+	public static boolean isVirtualThreadsSupported() {
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	/** Returns <tt>true</tt> IFF the agents run on the virtual threads. */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Starts given agent, it connects to its server as soon as the concurrency allows.
+	 *
+	 * @param agent the agent to start
+	 * @throws java.util.concurrent.RejectedExecutionException When the runtime has been shut down.
+	 */
+	public void start(final AbstractAgent agent) {
+		agents.add(agent);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				running.incrementAndGet();
+				try {
+					agent.agentThread();
+				} finally {
+					running.decrementAndGet();
+					agents.remove(agent);
+				}
+			}
+		});
+	}
+
+	/** Starts all given agents. */
+	public void startAll(Collection<? extends AbstractAgent> agents) {
+		for (AbstractAgent agent : agents) {
+			start(agent);
+		}
+	}
+
+	/** Returns the number of the agents currently connected to their server. */
+	public int getRunningAgents() {
+		return running.get();
+	}
+
+	/** Returns the number of the started agents which have not finished yet, including the waiting ones. */
+	public int getActiveAgents() {
+		return agents.size();
+	}
+
+	/** Stops accepting new agents, the started agents finish their sessions. */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/** Stops accepting new agents and closes the connections of all the started agents. */
+	public void shutdownNow() {
+		executor.shutdown();
+		for (AbstractAgent agent : agents) {
+			agent.close();
+		}
+	}
+
+	/**
+	 * Waits until all the started agents have finished, it should be called after <code>shutdown</code>.
+	 *
+	 * @return true if the agents have finished, false if the timeout elapsed
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Creates the factory of the virtual threads by reflection, so the agents still run on the older JVMs.
+	 *
+	 * @param prefix prefix of the names of the threads, followed by their number
+	 * @return the factory, null when the JVM does not support the virtual threads
+	 */
+	static ThreadFactory createVirtualThreadFactory(String prefix) {
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package massim.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compact representation of the cell percepts of one perception. The cells are stored in parallel primitive arrays: the coordinates
+ * relative to the agent, the content as a bit mask and the cow IDs. The cells can be read by index or by a {@link Visitor}, neither
+ * allocates per cell.
+ */
+public final class CellPercepts {
+
+	/** Content bits of the mask. */
+	public static final int OBSTACLE = 1, AGENT = 1 << 1, COW = 1 << 2, CORRAL = 1 << 3, SWITCH = 1 << 4, FENCE_OPEN = 1 << 5,
+			FENCE_CLOSED = 1 << 6, EMPTY = 1 << 7;
+
+	/** Receives the cells of the {@link #forEach(Visitor)} iteration. */
+	public interface Visitor {
+
+		/**
+		 * Visits one cell.
+		 *
+		 * @param x     x-coordinate of the cell relative to the agent
+		 * @param y     y-coordinate of the cell relative to the agent
+		 * @param mask  content of the cell, a combination of the content bits
+		 * @param cowId ID of the cow in the cell, -1 if there is none
+		 */
+		void visit(int x, int y, int mask, int cowId);
+	}
+
+	private short[] xs, ys;
+	private byte[] masks;
+	private int[] cowIds;
+	private int size;
+
+	/** Constructor of the CellPercepts class. */
+	public CellPercepts() {
+		this(64);
+	}
+
+	/** Constructor of the CellPercepts class with given initial capacity. */
+	public CellPercepts(int initialCapacity) {
+		final int capacity = Math.max(initialCapacity, 4);
+		xs = new short[capacity];
+		ys = new short[capacity];
+		masks = new byte[capacity];
+		cowIds = new int[capacity];
+		size = 0;
+	}
+
+	/** Creates the compact representation of given cell percepts. */
+	public static CellPercepts of(Collection<CellPercept> cells) {
+		final CellPercepts percepts = new CellPercepts(cells.size());
+		for (CellPercept cell : cells) {
+			percepts.add(cell.getX(), cell.getY(), maskOf(cell), cell.getCowId());
+		}
+		return percepts;
+	}
+
+	/** Returns the content mask of given cell percept. */
+	public static int maskOf(CellPercept cell) {
+		int mask = 0;
+		if (cell.containsObstacle()) mask |= OBSTACLE;
+		if (cell.containsAgent()) mask |= AGENT;
+		if (cell.containsCow()) mask |= COW;
+		if (cell.isInCorral()) mask |= CORRAL;
+		if (cell.containsFenceSwitch()) mask |= SWITCH;
+		if (cell.containsOpenFence()) mask |= FENCE_OPEN;
+		if (cell.containsClosedFence()) mask |= FENCE_CLOSED;
+		if (cell.isEmpty()) mask |= EMPTY;
+		return mask;
+	}
+
+	/**
+	 * Adds one cell.
+	 *
+	 * @param x     x-coordinate of the cell relative to the agent
+	 * @param y     y-coordinate of the cell relative to the agent
+	 * @param mask  content of the cell, a combination of the content bits
+	 * @param cowId ID of the cow in the cell, -1 if there is none
+	 */
+	public void add(int x, int y, int mask, int cowId) {
+		if (size == masks.length) {
+			final int capacity = size * 2;
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			masks = Arrays.copyOf(masks, capacity);
+			cowIds = Arrays.copyOf(cowIds, capacity);
+		}
+		xs[size] = (short) x;
+		ys[size] = (short) y;
+		masks[size] = (byte) mask;
+		cowIds[size] = cowId;
+		size++;
+	}
+
+	/** Removes all the cells, the arrays are kept for reuse. */
+	public void clear() {
+		size = 0;
+	}
+
+	/** Returns the number of the cells. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the x-coordinate of the cell with given index relative to the agent. */
+	public int getX(int index) {
+		return xs[index];
+	}
+
+	/** Returns the y-coordinate of the cell with given index relative to the agent. */
+	public int getY(int index) {
+		return ys[index];
+	}
+
+	/** Returns the content mask of the cell with given index. */
+	public int getMask(int index) {
+		return masks[index] & 0xff;
+	}
+
+	/** Returns <tt>true</tt> IFF the cell with given index contains any of given content bits. */
+	public boolean contains(int index, int bits) {
+		return (masks[index] & bits) != 0;
+	}
+
+	/** Returns the ID of the cow in the cell with given index, -1 if there is none. */
+	public int getCowId(int index) {
+		return cowIds[index];
+	}
+
+	/** Passes all the cells to given visitor in their order. */
+	public void forEach(Visitor visitor) {
+		for (int i = 0; i < size; i++) {
+			visitor.visit(xs[i], ys[i], masks[i] & 0xff, cowIds[i]);
+		}
+	}
+
+	/** Returns the cell with given index as a cell percept object. */
+	public CellPercept get(int index) {
+		final int mask = getMask(index);
+		return new CellPercept(xs[index], ys[index], (mask & OBSTACLE) != 0, (mask & AGENT) != 0, (mask & COW) != 0,
+				cowIds[index], (mask & CORRAL) != 0, (mask & SWITCH) != 0, (mask & FENCE_OPEN) != 0, (mask & FENCE_CLOSED) != 0,
+				(mask & EMPTY) != 0);
+	}
+
+	/** Returns all the cells as cell percept objects. */
+	public Collection<CellPercept> toCollection() {
+		final Collection<CellPercept> cells = new ArrayList<CellPercept>(size);
+		for (int i = 0; i < size; i++) {
+			cells.add(get(i));
+		}
+		return cells;
+	}
+
+	@Override
+	public String toString() {
+		return "CellPercepts [size=" + size + "]";
+	}
+}
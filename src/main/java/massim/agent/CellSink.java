@@ -0,0 +1,22 @@
+package massim.agent;
+
+/**
+ * Receiver of the cells decoded from a perception. When an agent has a sink, the cells are passed to it while the message is being
+ * decoded and the perception handed to <code>deliberate</code> carries no cells.
+ *
+ * @see MASAgent#setCellSink(CellSink)
+ */
+public interface CellSink extends CellPercepts.Visitor {
+
+	/**
+	 * Called before the cells of one perception.
+	 *
+	 * @param posX x-coordinate of the agent
+	 * @param posY y-coordinate of the agent
+	 * @param step simulation step of the perception
+	 */
+	void begin(int posX, int posY, int step);
+
+	/** Called after the last cell of the perception. */
+	void end();
+}
@@ -0,0 +1,273 @@
+package massim.agent;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection of one agent served by an event loop of the {@link SelectorTransport}. All the methods except <code>send</code> are
+ * called on the loop thread only, <code>send</code> may be called by the watchdog of a late step as well.
+ * <p/>
+ * The loop does the I/O and the authentication only. The received packets are copied out of the frame buffer and processed by a
+ * worker thread of the transport, one at a time and in the order they have been received, so a slow deliberation of one agent does not
+ * hold up the other connections of the loop.
+ */
+final class ChannelConnection {
+
+	private enum State { CONNECTING, AUTHENTICATING, RUNNING, CLOSED }
+
+	private final SelectorTransport.EventLoop loop;
+	private final AbstractAgent agent;
+	private final SocketChannel channel;
+	private final Queue<ByteBuffer> writeQueue;
+
+	private SelectionKey key;
+	private volatile State state;
+
+	/** Splits the received data into packets. */
+	private final FrameReader frameReader;
+
+	/** Received packets waiting for the worker. */
+	private final Queue<byte[]> packets;
+	/** Whether a worker is processing the packets of the connection. */
+	private final AtomicBoolean processing;
+	private final Runnable packetProcessor;
+
+	ChannelConnection(SelectorTransport.EventLoop loop, AbstractAgent agent, SocketChannel channel) {
+		this.loop = loop;
+		this.agent = agent;
+		this.channel = channel;
+		this.writeQueue = new ArrayDeque<ByteBuffer>();
+		this.state = State.CONNECTING;
+		this.frameReader = new FrameReader();
+		this.packets = new ConcurrentLinkedQueue<byte[]>();
+		this.processing = new AtomicBoolean();
+		this.packetProcessor = new Runnable() {
+			@Override
+			public void run() {
+				processPackets();
+			}
+		};
+	}
+
+	/** Registers the channel with the selector of the loop. */
+	void register(boolean connected) {
+		loop.added(this);
+		try {
+			key = channel.register(loop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+			if (connected) {
+				onConnected();
+			}
+		} catch (IOException e) {
+			System.err.println("IOException");
+			e.printStackTrace();
+			close();
+		}
+	}
+
+	/** Handles the ready operations of the selected key. */
+	void handle(SelectionKey key) {
+		try {
+			if (key.isValid() && key.isConnectable()) {
+				if (channel.finishConnect()) {
+					key.interestOps(SelectionKey.OP_READ);
+					onConnected();
+				}
+			}
+			if (key.isValid() && key.isReadable()) {
+				onReadable();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flushQueue();
+			}
+		} catch (IOException e) {
+			System.err.println("IOException");
+			e.printStackTrace();
+			close();
+		}
+	}
+
+	/**
+	 * Sends given data to the server, may be called from any thread. The data is written right away when nothing else is waiting to
+	 * be sent, the rest is queued and written by the loop.
+	 */
+	void send(ByteBuffer data) {
+		synchronized (writeQueue) {
+			if (state == State.CLOSED) return;
+			if (writeQueue.isEmpty()) {
+				try {
+					channel.write(data);
+				} catch (IOException e) {
+					System.err.println("IO Exception while trying to send data");
+					e.printStackTrace();
+					closeLater();
+					return;
+				}
+				if (!data.hasRemaining()) return;
+			}
+			writeQueue.add(data);
+		}
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flushQueue();
+				} catch (IOException e) {
+					System.err.println("IO Exception while trying to send data");
+					e.printStackTrace();
+					close();
+				}
+			}
+		});
+	}
+
+	private void closeLater() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/** Closes the connection. */
+	void close() {
+		if (state == State.CLOSED) return;
+		state = State.CLOSED;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (writeQueue) {
+			writeQueue.clear();
+		}
+		loop.removed(this);
+		agent.disconnected();
+		loop.transport.connectionClosed();
+	}
+
+	private void onConnected() throws IOException {
+		state = State.AUTHENTICATING;
+		agent.attachOutputStream(new ChannelOutputStream());
+		agent.sendAuthentication(agent.getUsername(), agent.getPassword());
+	}
+
+	private void onReadable() throws IOException {
+		if (frameReader.fill(channel) < 0) {
+			System.err.println("Socket was closed");
+			close();
+			return;
+		}
+		while (state != State.CLOSED && frameReader.next()) {
+			onPacket(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength());
+		}
+	}
+
+	private void onPacket(byte[] data, int offset, int length) {
+		agent.logReceived(data, offset, length);
+
+		if (state == State.AUTHENTICATING) {
+			Document doc = null;
+			try {
+				doc = agent.parseDocument(data, offset, length);
+			} catch (SAXException e) {
+				e.printStackTrace();
+			} catch (ParserConfigurationException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (doc == null || !agent.isAuthenticationOk(doc)) {
+				System.err.println("Authentication failed");
+				close();
+				return;
+			}
+			state = State.RUNNING;
+			agent.processLogIn();
+		} else {
+			packets.add(Arrays.copyOfRange(data, offset, offset + length));
+			scheduleProcessing();
+		}
+	}
+
+	/** Hands the waiting packets to a worker unless one is processing them already. */
+	private void scheduleProcessing() {
+		if (processing.compareAndSet(false, true) && !loop.transport.process(packetProcessor)) {
+			// the transport is shutting down
+			packets.clear();
+		}
+	}
+
+	/** Processes the waiting packets, called by a worker thread. */
+	private void processPackets() {
+		try {
+			byte[] packet;
+			while (state != State.CLOSED && (packet = packets.poll()) != null) {
+				if (!agent.processPacket(packet, 0, packet.length)) {
+					closeLater();
+					break;
+				}
+			}
+		} finally {
+			processing.set(false);
+			// a packet may have arrived after the last poll
+			if (state != State.CLOSED && !packets.isEmpty()) {
+				scheduleProcessing();
+			}
+		}
+	}
+
+	private void flushQueue() throws IOException {
+		synchronized (writeQueue) {
+			if (state == State.CLOSED) return;
+			while (!writeQueue.isEmpty()) {
+				final ByteBuffer data = writeQueue.peek();
+				channel.write(data);
+				if (data.hasRemaining()) break;
+				writeQueue.poll();
+			}
+			if (key.isValid()) {
+				key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/** Output stream of the agent, each <code>flush</code> queues the written data as one chunk. */
+	private class ChannelOutputStream extends OutputStream {
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+		@Override
+		public synchronized void write(int b) {
+			buffer.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			buffer.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() {
+			if (buffer.size() == 0) return;
+			send(ByteBuffer.wrap(buffer.toByteArray()));
+			buffer.reset();
+		}
+	}
+}
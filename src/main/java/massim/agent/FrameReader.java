@@ -0,0 +1,131 @@
+package massim.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits the data received from the server into zero-terminated packets (frames). The data is read in bulk into one reusable buffer
+ * which is scanned for the terminators, complete frames are exposed in place as a region of that buffer. Frames split across several
+ * reads are kept at the beginning of the buffer until the rest arrives.
+ * <p/>
+ * The region of the current frame is valid only until the next <code>fill</code> call.
+ */
+public class FrameReader {
+
+	private static final int DEFAULT_CAPACITY = 16 * 1024;
+
+	/** The buffer of received data. */
+	private byte[] buffer;
+	/** Start of the unprocessed data in the buffer. */
+	private int start;
+	/** End of the received data in the buffer. */
+	private int end;
+	/** Position up to which the buffer was already scanned for a terminator. */
+	private int scanned;
+
+	/** Region of the current frame. */
+	private int frameOffset, frameLength;
+
+	/** Constructor of the FrameReader class. */
+	public FrameReader() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/** Constructor of the FrameReader class with given initial buffer capacity. */
+	public FrameReader(int initialCapacity) {
+		buffer = new byte[Math.max(initialCapacity, 16)];
+		start = end = scanned = 0;
+		frameOffset = frameLength = 0;
+	}
+
+	/**
+	 * Reads available data from given stream into the buffer.
+	 *
+	 * @return the number of bytes read, -1 at the end of the stream
+	 * @throws java.io.IOException When the stream cannot be read.
+	 */
+	public int fill(InputStream inputStream) throws IOException {
+		makeRoom();
+		final int read = inputStream.read(buffer, end, buffer.length - end);
+		if (read > 0) end += read;
+		return read;
+	}
+
+	/**
+	 * Reads available data from given channel into the buffer.
+	 *
+	 * @return the number of bytes read, -1 at the end of the stream
+	 * @throws java.io.IOException When the channel cannot be read.
+	 */
+	public int fill(ReadableByteChannel channel) throws IOException {
+		makeRoom();
+		final int read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+		if (read > 0) end += read;
+		return read;
+	}
+
+	/**
+	 * Advances to the next complete frame in the buffer.
+	 *
+	 * @return true when a complete frame is available, false when more data needs to be read
+	 */
+	public boolean next() {
+		final byte[] data = buffer;
+		for (int i = scanned; i < end; i++) {
+			if (data[i] == 0) {
+				frameOffset = start;
+				frameLength = i - start;
+				start = scanned = i + 1;
+				return true;
+			}
+		}
+		scanned = end;
+		return false;
+	}
+
+	/** Returns the buffer holding the current frame. */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/** Returns the offset of the current frame in the buffer. */
+	public int getFrameOffset() {
+		return frameOffset;
+	}
+
+	/** Returns the length of the current frame (without the terminator). */
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	/** Returns the number of buffered bytes not belonging to any complete frame yet. */
+	public int getPending() {
+		return end - start;
+	}
+
+	/** Discards all the buffered data. */
+	public void clear() {
+		start = end = scanned = 0;
+		frameOffset = frameLength = 0;
+	}
+
+	/** Moves the unfinished frame to the beginning of the buffer and grows the buffer if it is full. */
+	private void makeRoom() {
+		if (start > 0) {
+			final int pending = end - start;
+			if (pending > 0) {
+				System.arraycopy(buffer, start, buffer, 0, pending);
+			}
+			scanned -= start;
+			end = pending;
+			start = 0;
+		}
+		if (end == buffer.length) {
+			final byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, end);
+			buffer = larger;
+		}
+	}
+}
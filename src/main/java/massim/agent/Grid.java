@@ -0,0 +1,167 @@
+package massim.agent;
+
+/**
+ * Primitive coordinates of a grid. A cell is addressed by its packed index <tt>y * width + x</tt>, the moves are looked up in tables
+ * indexed by the action ordinal. Nothing here allocates, {@link Position} is only needed at the boundary (messages).
+ */
+public final class Grid {
+
+	/** Index of no cell, returned for the moves leading out of the grid. */
+	public static final int NONE = -1;
+
+	/** Coordinate change of the actions, indexed by the action ordinal. */
+	private static final int[] DX = new int[Action.values().length], DY = new int[Action.values().length];
+	/** Next action in clock-wise sense skipping diagonal directions, indexed by the action ordinal. */
+	private static final Action[] NEXT = new Action[Action.values().length];
+	/** Actions for the coordinate change signs, indexed by <tt>(sy + 1) * 3 + sx + 1</tt>. */
+	private static final Action[] BY_DELTA = new Action[9];
+
+	/** The moves to the neighbouring cells. */
+	public static final Action[] MOVES = {
+			Action.NORTH, Action.NORTHEAST, Action.EAST, Action.SOUTHEAST,
+			Action.SOUTH, Action.SOUTHWEST, Action.WEST, Action.NORTHWEST
+	};
+
+	static {
+		setMove(Action.SKIP, 0, 0, Action.SKIP);
+		setMove(Action.NORTH, 0, -1, Action.EAST);
+		setMove(Action.NORTHEAST, 1, -1, Action.EAST);
+		setMove(Action.EAST, 1, 0, Action.SOUTH);
+		setMove(Action.SOUTHEAST, 1, 1, Action.SOUTH);
+		setMove(Action.SOUTH, 0, 1, Action.WEST);
+		setMove(Action.SOUTHWEST, -1, 1, Action.WEST);
+		setMove(Action.WEST, -1, 0, Action.NORTH);
+		setMove(Action.NORTHWEST, -1, -1, Action.NORTH);
+	}
+
+	private static void setMove(Action action, int dx, int dy, Action next) {
+		DX[action.ordinal()] = dx;
+		DY[action.ordinal()] = dy;
+		NEXT[action.ordinal()] = next;
+		BY_DELTA[(dy + 1) * 3 + dx + 1] = action;
+	}
+
+	private final int width, height;
+	/** Index change of the actions, indexed by the action ordinal. */
+	private final int[] offsets;
+
+	/** Constructor of the Grid class. */
+	public Grid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.offsets = new int[DX.length];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = DY[i] * width + DX[i];
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/** Returns the number of the cells. */
+	public int size() {
+		return width * height;
+	}
+
+	/** Returns the index of the cell with given coordinates, they are not checked. */
+	public int index(int x, int y) {
+		return y * width + x;
+	}
+
+	/** Returns the index of the cell at given position, they are not checked. */
+	public int index(Position position) {
+		return position.getY() * width + position.getX();
+	}
+
+	/** Returns the x-coordinate of the cell with given index. */
+	public int x(int index) {
+		return index % width;
+	}
+
+	/** Returns the y-coordinate of the cell with given index. */
+	public int y(int index) {
+		return index / width;
+	}
+
+	/** Returns the position of the cell with given index. */
+	public Position toPosition(int index) {
+		return new Position(index % width, index / width);
+	}
+
+	/** Returns <tt>true</tt> IFF given coordinates are inside the grid. */
+	public boolean isInside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * Returns the cell after one move.
+	 *
+	 * @param index  the cell
+	 * @param action the move, skip leaves the cell unchanged
+	 * @return index of the cell, {@link #NONE} if the move leads out of the grid
+	 */
+	public int move(int index, Action action) {
+		final int a = action.ordinal();
+		final int x = index % width + DX[a], y = index / width + DY[a];
+		return isInside(x, y) ? index + offsets[a] : NONE;
+	}
+
+	/**
+	 * Writes the neighbouring cells of given cell which are inside the grid.
+	 *
+	 * @param index     the cell
+	 * @param neighbors output of the neighbouring cells, it must hold 8 cells
+	 * @return the number of the neighbouring cells
+	 */
+	public int neighbors(int index, int[] neighbors) {
+		final int x = index % width, y = index / width;
+		int count = 0;
+		for (Action move : MOVES) {
+			final int a = move.ordinal();
+			if (isInside(x + DX[a], y + DY[a])) {
+				neighbors[count++] = index + offsets[a];
+			}
+		}
+		return count;
+	}
+
+	/** Returns the Chebyshev (king move) distance between given cells. */
+	public int distance(int from, int to) {
+		return Math.max(Math.abs(from % width - to % width), Math.abs(from / width - to / width));
+	}
+
+	/** Returns an action to get from one cell towards the other. */
+	public Action getAction(int from, int to) {
+		return getDirection(to % width - from % width, to / width - from / width);
+	}
+
+	/** Returns an action going in the direction of given coordinate change. */
+	public static Action getDirection(int dx, int dy) {
+		return BY_DELTA[(Integer.signum(dy) + 1) * 3 + Integer.signum(dx) + 1];
+	}
+
+	/** Returns the x-coordinate change of given action. */
+	public static int getDeltaX(Action action) {
+		return DX[action.ordinal()];
+	}
+
+	/** Returns the y-coordinate change of given action. */
+	public static int getDeltaY(Action action) {
+		return DY[action.ordinal()];
+	}
+
+	/** Returns the next action in clock-wise sense skipping diagonal directions. */
+	public static Action next(Action action) {
+		return NEXT[action.ordinal()];
+	}
+
+	@Override
+	public String toString() {
+		return "Grid [width=" + width + ", height=" + height + "]";
+	}
+}
@@ -8,9 +8,15 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import java.util.Collection;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Description of an agent for the simulation */
 public abstract class MASAgent extends AbstractAgent implements MessageHandler {
@@ -26,6 +32,37 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 
 	private OnPositionChangedCallback positionChangedCallback;
 
+	/** Streaming parser of the perception messages, null when only the DOM path is used. */
+	private PerceptionParser perceptionParser = new PerceptionParser();
+
+	/** Receiver of the decoded cells, null to pass them in the perception. */
+	private CellSink cellSink;
+
+	/** ID of the current simulation, null before the first one. */
+	private String simulationId;
+
+	/** Scheduler of the watchdogs, shared by all the agents. */
+	private static ScheduledThreadPoolExecutor watchdog;
+
+	/** State of a step being deliberated. */
+	private static final class PendingStep {
+		final String id;
+		/** Local time the response should be sent by. */
+		final long sendDeadline;
+		/** Set once the response has been sent, either by the deliberation or by the watchdog. */
+		final AtomicBoolean answered = new AtomicBoolean();
+		ScheduledFuture<?> watchdog;
+
+		PendingStep(String id, long sendDeadline) {
+			this.id = id;
+			this.sendDeadline = sendDeadline;
+		}
+	}
+
+	private final StepClock stepClock = new StepClock();
+	private volatile PendingStep currentStep;
+	private volatile boolean watchdogEnabled = true;
+
 	public MASAgent(String host, int port, String username, String password) {
 		this.setUsername(username);
 		this.setPassword(password);
@@ -44,6 +81,21 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 		return newMessages;
 	}
 
+	private static synchronized ScheduledThreadPoolExecutor getWatchdog() {
+		if (watchdog == null) {
+			watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "step-watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			watchdog.setRemoveOnCancelPolicy(true);
+		}
+		return watchdog;
+	}
+
 	public void setCommunicator(Communicator communicator, List<String> agents) {
 		this.communicator = communicator;
 		this.agents = new LinkedList<String>(agents);
@@ -73,6 +125,7 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 	@Override
 	public void processSimulationStart(Element perception, long currentTime) {
 		super.processSimulationStart(perception, currentTime);
+		simulationId = perception.hasAttribute("id") ? perception.getAttribute("id") : null;
 
 		int gridWidth = Integer.parseInt(perception.getAttribute("gsizex"));
 		int gridHeight = Integer.parseInt(perception.getAttribute("gsizey"));
@@ -85,25 +138,26 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 
 	@Override
 	public void processRequestAction(Element perception, Element target, long currentTime, long deadline) {
+		beginStep(perception.getAttribute("id"), currentTime, deadline);
+
 		// process percepts
 
 		int posX = Integer.parseInt(perception.getAttribute("posx"));
 		int posY = Integer.parseInt(perception.getAttribute("posy"));
 
-		if (positionChangedCallback != null) {
-			positionChangedCallback.positionChanged(new Position(posX, posY));
-		}
-
 		int cowsInCorral = Integer.parseInt(perception.getAttribute("cowsInCorral"));
 
 		int step = Integer.parseInt(perception.getAttribute("step"));
 
 		// parse cell content data
 
-		Collection<CellPercept> cellPercepts = new LinkedList<CellPercept>();
-
 		NodeList nodeList = perception.getElementsByTagName("cell");
 
+		CellPercepts cells = new CellPercepts(cellSink == null ? nodeList.getLength() : 0);
+		if (cellSink != null) {
+			cellSink.begin(posX, posY, step);
+		}
+
 		for (int i = 0; i < nodeList.getLength(); i++) {
 			Node node = nodeList.item(i);
 			if (node.getNodeType() == Node.ELEMENT_NODE) {
@@ -115,15 +169,8 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 				NodeList children = element.getChildNodes();
 				Element childElement;
 
-				boolean obstacle = false;
-				boolean agent = false;
-				boolean cow = false;
+				int mask = 0;
 				int cowId = -1;
-				boolean corral = false;
-				boolean fenceSwitch = false;
-				boolean openFence = false;
-				boolean closedFence = false;
-				boolean empty = false;
 
 				for (int j = 0; j < children.getLength(); j++) {
 					if (children.item(j).getNodeType() == Node.ELEMENT_NODE) {
@@ -131,53 +178,194 @@ public abstract class MASAgent extends AbstractAgent implements MessageHandler {
 						String elementName = childElement.getNodeName();
 
 						if (elementName.equals("agent")) {
-							agent = true;
+							mask |= CellPercepts.AGENT;
 						}
 						if (elementName.equals("obstacle")) {
-							obstacle = true;
+							mask |= CellPercepts.OBSTACLE;
 						}
 						if (elementName.equals("cow")) {
-							cow = true;
+							mask |= CellPercepts.COW;
 							cowId = Integer.parseInt(childElement.getAttribute("ID"));
 						}
 						if (elementName.equals("corral")) {
-							corral = true;
+							mask |= CellPercepts.CORRAL;
 						}
 						if (elementName.equals("switch")) {
-							fenceSwitch = true;
+							mask |= CellPercepts.SWITCH;
 						}
 						if (elementName.equals("fence")) {
 							boolean open = Boolean.parseBoolean(childElement.getAttribute("open"));
 							if (open) {
-								openFence = true;
+								mask |= CellPercepts.FENCE_OPEN;
 							}
 							else {
-								closedFence = true;
+								mask |= CellPercepts.FENCE_CLOSED;
 							}
 						}
 						if (elementName.equals("empty")) {
-							empty = true;
+							mask |= CellPercepts.EMPTY;
 						}
 					}
 				}
 
-				cellPercepts.add(new CellPercept(x, y, obstacle, agent, cow, cowId, corral, fenceSwitch, openFence, closedFence, empty));
+				if (cellSink != null) {
+					cellSink.visit(x, y, mask, cowId);
+				} else {
+					cells.add(x, y, mask, cowId);
+				}
 			}
 		}
+		if (cellSink != null) {
+			cellSink.end();
+		}
 
-		MASPerception percept = new MASPerception(posX, posY, cowsInCorral, step, cellPercepts);
+		MASPerception percept = new MASPerception(posX, posY, cowsInCorral, step, cells);
 
-		Action action = deliberate(percept);
+		Action action = perceive(percept);
 
 		target.setAttribute("type", action.toString().toLowerCase());
 	}
 
+	/**
+	 * Decodes the <code>request-action</code> messages by the streaming parser and answers them directly, other messages and all
+	 * the messages when the streaming parser is disabled go through the DOM path.
+	 */
+	@Override
+	boolean processPacket(byte[] raw, int offset, int length) {
+		if (perceptionParser != null) {
+			try {
+				if (perceptionParser.parse(raw, offset, length)) {
+					final String id = perceptionParser.getId();
+					beginStep(id, perceptionParser.getTimestamp(), perceptionParser.getDeadline());
+					Action action = perceive(perceptionParser.getPerception());
+					if (claimResponse()) {
+						sendAction(id, action);
+					}
+					return true;
+				}
+			} catch (XMLStreamException e) {
+				e.printStackTrace();
+				return true;
+			} catch (NumberFormatException e) {
+				System.err.println("number format invalid");
+				e.printStackTrace();
+				return true;
+			} catch (IOException e) {
+				System.err.println("IO Exception while trying to send action");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		return super.processPacket(raw, offset, length);
+	}
+
+	/** Handles the perception of one simulation step and returns the action of the agent. */
+	private Action perceive(MASPerception percept) {
+		if (positionChangedCallback != null) {
+			positionChangedCallback.positionChanged(new Position(percept.getPosX(), percept.getPosY()));
+		}
+
+		return deliberate(percept);
+	}
+
+	/**
+	 * Starts the step answering the request with given id. The deliberation gets the time budget estimated by the step clock, when it
+	 * runs out the watchdog sends the fallback action instead.
+	 */
+	private void beginStep(String id, long currentTime, long deadline) {
+		final long now = System.currentTimeMillis();
+		stepClock.onMessage(currentTime, now);
+
+		final PendingStep step = new PendingStep(id, now + stepClock.getBudget(currentTime, deadline));
+		currentStep = step;
+		if (watchdogEnabled) {
+			step.watchdog = getWatchdog().schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!step.answered.compareAndSet(false, true)) return;
+					stepClock.onMissed();
+					try {
+						sendAction(step.id, getFallbackAction());
+					} catch (IOException e) {
+						System.err.println("IO Exception while trying to send fallback action");
+						e.printStackTrace();
+					}
+				}
+			}, Math.max(0, step.sendDeadline - now), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** The response of the current step is sent by the watchdog if the deliberation has been late. */
+	@Override
+	protected boolean claimResponse() {
+		final PendingStep step = currentStep;
+		if (step == null) return true;
+		if (!step.answered.compareAndSet(false, true)) return false;
+
+		if (step.watchdog != null) {
+			step.watchdog.cancel(false);
+		}
+		stepClock.onAnswered(step.sendDeadline - System.currentTimeMillis());
+		return true;
+	}
+
+	/** Returns the time left for the deliberation of the current step, in milliseconds. */
+	protected long getRemainingBudget() {
+		final PendingStep step = currentStep;
+		return (step == null) ? Long.MAX_VALUE : step.sendDeadline - System.currentTimeMillis();
+	}
+
+	/** Returns the action sent by the watchdog when the deliberation runs out of its budget. */
+	protected Action getFallbackAction() {
+		return Action.SKIP;
+	}
+
+	/** Returns the ID of the current simulation, null if the server has not sent any. */
+	public String getSimulationId() {
+		return simulationId;
+	}
+
+	/** Returns the step clock with the time estimates and the per-step slack statistics. */
+	public StepClock getStepClock() {
+		return stepClock;
+	}
+
+	/** Enables or disables the watchdog sending the fallback action. */
+	public void setWatchdogEnabled(boolean enabled) {
+		this.watchdogEnabled = enabled;
+	}
+
 	protected abstract Action deliberate(MASPerception percept);
 
 	public int getNoOfAgents() {
 		return nAgents;
 	}
 
+	/**
+	 * Enables or disables the streaming parser of the perception messages. When disabled, all the messages are parsed to DOM and
+	 * handled by <code>processRequestAction</code>.
+	 */
+	public void setStreamingParser(boolean enabled) {
+		perceptionParser = enabled ? new PerceptionParser() : null;
+		if (perceptionParser != null) {
+			perceptionParser.setCellSink(cellSink);
+		}
+	}
+
+	/**
+	 * Sets the receiver of the decoded cells. The cells are then written to the sink while the message is being decoded, with no
+	 * intermediate objects, and the perception passed to <code>deliberate</code> carries no cells.
+	 *
+	 * @param cellSink the receiver, null to pass the cells in the perception again
+	 * @see massim.agent.student.game.GameMap#getCellSink()
+	 */
+	protected void setCellSink(CellSink cellSink) {
+		this.cellSink = cellSink;
+		if (perceptionParser != null) {
+			perceptionParser.setCellSink(cellSink);
+		}
+	}
+
 	public void registerPositionChangedCallback(OnPositionChangedCallback callback) {
 		this.positionChangedCallback = callback;
 	}
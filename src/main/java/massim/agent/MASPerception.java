@@ -11,6 +11,18 @@ public class MASPerception {
 		this.cowsInCoral = cowsInCoral;
 		this.step = step;
 		this.cellPercepts = cellPercepts;
+		this.cells = null;
+	}
+
+	/** Constructor of the MASPerception class with the cells in the compact representation. */
+	public MASPerception(int posX, int poxY, int cowsInCoral, int step, CellPercepts cells) {
+		super();
+		this.posX = posX;
+		this.poxY = poxY;
+		this.cowsInCoral = cowsInCoral;
+		this.step = step;
+		this.cellPercepts = null;
+		this.cells = cells;
 	}
 
 	final int posX;
@@ -20,13 +32,15 @@ public class MASPerception {
 
 	final int step;
 
-	final Collection<CellPercept> cellPercepts;
+	/** The cells in one of the representations, the other one is created on demand. */
+	Collection<CellPercept> cellPercepts;
+	CellPercepts cells;
 
 	@Override
 	public String toString() {
 		return "MASPerception [posX=" + posX + ", poxY=" + poxY
 				+ ", cowsInCoral=" + cowsInCoral + ", step=" + step
-				+ ", cellPercepts=" + cellPercepts + "]";
+				+ ", cells=" + getCells() + "]";
 	}
 
 	public int getPosX() {
@@ -45,8 +59,20 @@ public class MASPerception {
 		return step;
 	}
 
+	/** Returns the cells as cell percept objects, prefer {@link #getCells()} which does not allocate per cell. */
 	public Collection<CellPercept> getCellPercepts() {
+		if (cellPercepts == null) {
+			cellPercepts = cells.toCollection();
+		}
 		return cellPercepts;
 	}
 
+	/** Returns the cells in the compact representation. */
+	public CellPercepts getCells() {
+		if (cells == null) {
+			cells = CellPercepts.of(cellPercepts);
+		}
+		return cells;
+	}
+
 }
@@ -0,0 +1,154 @@
+package massim.agent;
+
+import java.util.Arrays;
+
+/**
+ * Cell sink computing the difference between the consecutive views of one agent. Every cell of a perception is compared with the
+ * previous perception and the differences are passed on: the cells which came into view, the visible cells whose content has
+ * changed and the cells which left the view. The cells seen unchanged are passed apart from them, so the consumers which ignore
+ * them work in time proportional to the change, not to the visibility area. The coordinates passed to the listener are absolute.
+ */
+public class PerceptionDelta implements CellSink {
+
+	/** Receiver of the differences. */
+	public interface Listener {
+
+		/** Called before the differences of the perception of given simulation step. */
+		void begin(int step);
+
+		/** A cell came into view, its previous content is unknown or out of date. */
+		void entered(int x, int y, int mask, int cowId);
+
+		/** The content of a cell which stayed in view has changed. */
+		void changed(int x, int y, int previousMask, int mask, int cowId);
+
+		/** A cell stayed in view with the same content, a listener keeping when the cells have been seen refreshes it. */
+		void unchanged(int x, int y, int mask, int cowId);
+
+		/** A cell left the view, the mask is its last seen content. */
+		void left(int x, int y, int mask);
+	}
+
+	private final int width, height;
+	private final Listener listener;
+
+	/** Last seen content of the cells. */
+	private final byte[] masks;
+	private final int[] cowIds;
+	/** Number of the perception the cell has been seen in last time, -1 if never. */
+	private final int[] stamps;
+
+	/** Indices of the cells visible in the current and in the previous perception. */
+	private int[] visible, previous;
+	private int visibleCount, previousCount;
+
+	private int stamp;
+	private int posX, posY;
+	private int entered, changed, left;
+
+	/**
+	 * Constructor of the PerceptionDelta class.
+	 *
+	 * @param width    width of the grid
+	 * @param height   height of the grid
+	 * @param listener receiver of the differences
+	 */
+	public PerceptionDelta(int width, int height, Listener listener) {
+		this.width = width;
+		this.height = height;
+		this.listener = listener;
+		this.masks = new byte[width * height];
+		this.cowIds = new int[width * height];
+		this.stamps = new int[width * height];
+		this.visible = new int[256];
+		this.previous = new int[256];
+		reset();
+	}
+
+	/** Forgets all the previous perceptions, all the cells of the next one are reported as entered. */
+	public void reset() {
+		Arrays.fill(stamps, -1);
+		visibleCount = previousCount = 0;
+		stamp = 0;
+		entered = changed = left = 0;
+	}
+
+	@Override
+	public void begin(int posX, int posY, int step) {
+		this.posX = posX;
+		this.posY = posY;
+		listener.begin(step);
+
+		final int[] tmp = previous;
+		previous = visible;
+		previousCount = visibleCount;
+		visible = tmp;
+		visibleCount = 0;
+
+		stamp++;
+		entered = changed = left = 0;
+	}
+
+	@Override
+	public void visit(int x, int y, int mask, int cowId) {
+		final int cx = posX + x, cy = posY + y;
+		if (cx < 0 || cy < 0 || cx >= width || cy >= height) return;
+		final int index = cy * width + cx;
+		if (stamps[index] == stamp) return;
+
+		final int previousMask = masks[index] & 0xff;
+		if (stamps[index] != stamp - 1) {
+			entered++;
+			listener.entered(cx, cy, mask, cowId);
+		} else if (previousMask != mask || cowIds[index] != cowId) {
+			changed++;
+			listener.changed(cx, cy, previousMask, mask, cowId);
+		} else {
+			listener.unchanged(cx, cy, mask, cowId);
+		}
+		masks[index] = (byte) mask;
+		cowIds[index] = cowId;
+		stamps[index] = stamp;
+
+		if (visibleCount == visible.length) {
+			visible = Arrays.copyOf(visible, visibleCount * 2);
+		}
+		visible[visibleCount++] = index;
+	}
+
+	@Override
+	public void end() {
+		for (int i = 0; i < previousCount; i++) {
+			final int index = previous[i];
+			if (stamps[index] != stamp) {
+				left++;
+				listener.left(index % width, index / width, masks[index] & 0xff);
+			}
+		}
+	}
+
+	/** Returns the number of the cells which came into view in the last perception. */
+	public int getEntered() {
+		return entered;
+	}
+
+	/** Returns the number of the cells whose content has changed in the last perception. */
+	public int getChanged() {
+		return changed;
+	}
+
+	/** Returns the number of the cells which left the view in the last perception. */
+	public int getLeft() {
+		return left;
+	}
+
+	/** Returns the number of the cells visible in the last perception. */
+	public int getVisible() {
+		return visibleCount;
+	}
+
+	@Override
+	public String toString() {
+		return "PerceptionDelta [visible=" + visibleCount + ", entered=" + entered + ", changed=" + changed + ", left=" + left + "]";
+	}
+}
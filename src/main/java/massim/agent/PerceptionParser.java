@@ -0,0 +1,151 @@
+package massim.agent;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+
+/**
+ * Streaming (StAX) decoder of the <code>request-action</code> messages. It reads the packet in one pass and turns it straight into
+ * the perception data without building a DOM tree. Any other message is left to the DOM path.
+ */
+final class PerceptionParser {
+
+	private final XMLInputFactory inputFactory;
+
+	/** Data of the last parsed message. */
+	private long timestamp, deadline;
+	private String id;
+	private int posX, posY, cowsInCorral, step;
+	private CellPercepts cells;
+
+	/** Receiver of the cells, null to collect them into the perception. */
+	private CellSink cellSink;
+	private final CellPercepts noCells = new CellPercepts(0);
+
+	PerceptionParser() {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+	}
+
+	/**
+	 * Parses one packet received from the server.
+	 *
+	 * @param raw    buffer holding the packet data
+	 * @param offset offset of the packet in the buffer
+	 * @param length length of the packet
+	 * @return true when the packet is a <code>request-action</code> message and has been parsed, false otherwise
+	 * @throws javax.xml.stream.XMLStreamException When the packet is not wellformed.
+	 * @throws NumberFormatException                When a numeric attribute is invalid.
+	 */
+	boolean parse(byte[] raw, int offset, int length) throws XMLStreamException {
+		final XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(raw, offset, length));
+		try {
+			if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"message".equals(reader.getLocalName())) return false;
+			if (!"request-action".equals(reader.getAttributeValue(null, "type"))) return false;
+			timestamp = Long.parseLong(reader.getAttributeValue(null, "timestamp"));
+
+			if (cellSink == null) {
+				cells = new CellPercepts((cells == null || cells == noCells) ? 64 : cells.size());
+			} else {
+				cells = noCells;
+			}
+			boolean perception = false;
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				final String name = reader.getLocalName();
+				if (name.equals("perception")) {
+					perception = true;
+					id = reader.getAttributeValue(null, "id");
+					deadline = Long.parseLong(reader.getAttributeValue(null, "deadline"));
+					posX = Integer.parseInt(reader.getAttributeValue(null, "posx"));
+					posY = Integer.parseInt(reader.getAttributeValue(null, "posy"));
+					cowsInCorral = Integer.parseInt(reader.getAttributeValue(null, "cowsInCorral"));
+					step = Integer.parseInt(reader.getAttributeValue(null, "step"));
+					if (cellSink != null) {
+						cellSink.begin(posX, posY, step);
+					}
+				} else if (name.equals("cell")) {
+					parseCell(reader);
+				}
+			}
+			if (perception && cellSink != null) {
+				cellSink.end();
+			}
+			return perception;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Parses the content of one <code>cell</code> element into the cells or the sink, the reader is left at its end. */
+	private void parseCell(XMLStreamReader reader) throws XMLStreamException {
+		final int x = Integer.parseInt(reader.getAttributeValue(null, "x"));
+		final int y = Integer.parseInt(reader.getAttributeValue(null, "y"));
+
+		int mask = 0;
+		int cowId = -1;
+
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				final String elementName = reader.getLocalName();
+				if (elementName.equals("agent")) {
+					mask |= CellPercepts.AGENT;
+				} else if (elementName.equals("obstacle")) {
+					mask |= CellPercepts.OBSTACLE;
+				} else if (elementName.equals("cow")) {
+					mask |= CellPercepts.COW;
+					cowId = Integer.parseInt(reader.getAttributeValue(null, "ID"));
+				} else if (elementName.equals("corral")) {
+					mask |= CellPercepts.CORRAL;
+				} else if (elementName.equals("switch")) {
+					mask |= CellPercepts.SWITCH;
+				} else if (elementName.equals("fence")) {
+					if (Boolean.parseBoolean(reader.getAttributeValue(null, "open"))) {
+						mask |= CellPercepts.FENCE_OPEN;
+					} else {
+						mask |= CellPercepts.FENCE_CLOSED;
+					}
+				} else if (elementName.equals("empty")) {
+					mask |= CellPercepts.EMPTY;
+				}
+			}
+		}
+
+		if (cellSink != null) {
+			cellSink.visit(x, y, mask, cowId);
+		} else {
+			cells.add(x, y, mask, cowId);
+		}
+	}
+
+	/** Sets the receiver of the cells, null to collect them into the perception. */
+	void setCellSink(CellSink cellSink) {
+		this.cellSink = cellSink;
+	}
+
+	long getTimestamp() {
+		return timestamp;
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	/** Returns the perception of the last parsed message. */
+	MASPerception getPerception() {
+		return new MASPerception(posX, posY, cowsInCorral, step, cells);
+	}
+}
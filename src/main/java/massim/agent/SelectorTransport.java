@@ -0,0 +1,266 @@
+package massim.agent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport which multiplexes the server connections of many agents over a few event-loop threads. Every connection is
+ * bound to one event loop for its whole life. The loop reads and writes the data and authenticates the agent, the received messages are
+ * handed to the worker threads, so the deliberation of one agent never blocks the I/O of the others. The messages of one agent are
+ * processed one at a time in the order they have been received, so the usual <code>processMessage</code> hooks of the agent keep
+ * working unchanged.
+ * <p/>
+ * The number of the event-loop threads does not depend on the number of connected agents. The workers are virtual threads when the JVM
+ * supports them, one per agent deliberating at the moment. Otherwise they are a pool of platform threads, one per processor, and the
+ * agents ready to deliberate wait in its queue, so the number of the threads and of the context switches does not grow with the
+ * number of the agents. A deliberation blocking a platform worker (e.g. a sleep) delays the agents queued behind it, their step
+ * watchdogs answer in time then.
+ */
+public class SelectorTransport {
+
+	private final EventLoop[] loops;
+	/** Workers processing the received messages. */
+	private final ThreadPoolExecutor workers;
+	private final AtomicInteger nextLoop;
+	private final AtomicInteger openConnections;
+
+	private volatile boolean started;
+	private volatile boolean shutdown;
+	private volatile boolean shutdownWhenIdle;
+
+	/** Constructor of the SelectorTransport class using a single event loop. */
+	public SelectorTransport() throws IOException {
+		this(1);
+	}
+
+	/**
+	 * Constructor of the SelectorTransport class.
+	 *
+	 * @param nLoops number of event-loop threads
+	 * @throws java.io.IOException When a selector cannot be opened.
+	 */
+	public SelectorTransport(int nLoops) throws IOException {
+		if (nLoops < 1) {
+			throw new IllegalArgumentException("at least one event loop is required");
+		}
+		loops = new EventLoop[nLoops];
+		for (int i = 0; i < nLoops; i++) {
+			loops[i] = new EventLoop(this, "transport-loop-" + i, Selector.open());
+		}
+		final ThreadFactory virtual = AgentRuntime.createVirtualThreadFactory("transport-worker-");
+		if (virtual != null) {
+			workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), virtual);
+		} else {
+			final int nWorkers = Runtime.getRuntime().availableProcessors();
+			workers = new ThreadPoolExecutor(nWorkers, nWorkers, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final AtomicInteger counter = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							final Thread thread = new Thread(r, "transport-worker-" + counter.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			workers.allowCoreThreadTimeOut(true);
+		}
+		nextLoop = new AtomicInteger();
+		openConnections = new AtomicInteger();
+		started = false;
+		shutdown = false;
+		shutdownWhenIdle = false;
+	}
+
+	/** Starts the event-loop threads, it is called automatically by the first <code>connect</code>. */
+	public synchronized void start() {
+		if (started) return;
+		started = true;
+		for (EventLoop loop : loops) {
+			loop.thread.start();
+		}
+	}
+
+	/**
+	 * Connects given agent to its server. The connection is made asynchronously, the agent authenticates itself as soon as the
+	 * connection is established and then receives messages the same way as from its own thread.
+	 *
+	 * @param agent the agent to connect
+	 * @throws java.io.IOException When the channel cannot be opened.
+	 */
+	public void connect(AbstractAgent agent) throws IOException {
+		if (shutdown) {
+			throw new IllegalStateException("transport has been shut down");
+		}
+		start();
+
+		final SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		final boolean connected = channel.connect(new InetSocketAddress(agent.getHost(), agent.getPort()));
+
+		final EventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		final ChannelConnection connection = new ChannelConnection(loop, agent, channel);
+		openConnections.incrementAndGet();
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				connection.register(connected);
+			}
+		});
+	}
+
+	/**
+	 * When set, the transport shuts itself down as soon as the last open connection is closed.
+	 *
+	 * @param shutdownWhenIdle the flag value
+	 */
+	public void setShutdownWhenIdle(boolean shutdownWhenIdle) {
+		this.shutdownWhenIdle = shutdownWhenIdle;
+		if (shutdownWhenIdle && openConnections.get() == 0) {
+			shutdown();
+		}
+	}
+
+	/** Returns the number of currently open connections. */
+	public int getOpenConnections() {
+		return openConnections.get();
+	}
+
+	/** Closes all the connections and stops the event-loop and the worker threads. */
+	public void shutdown() {
+		shutdown = true;
+		for (EventLoop loop : loops) {
+			loop.stop();
+		}
+		workers.shutdown();
+	}
+
+	/** Waits until all the event-loop threads and the messages being processed have finished. */
+	public void awaitTermination() throws InterruptedException {
+		for (EventLoop loop : loops) {
+			if (loop.thread.isAlive()) {
+				loop.thread.join();
+			}
+		}
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs given message processing on a worker thread.
+	 *
+	 * @return false if the transport has been shut down and the task has not been accepted
+	 */
+	boolean process(Runnable task) {
+		try {
+			workers.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/** Called by a connection once it has been closed. */
+	void connectionClosed() {
+		if (openConnections.decrementAndGet() == 0 && shutdownWhenIdle) {
+			shutdown();
+		}
+	}
+
+	/** One event-loop thread with its selector. */
+	static final class EventLoop implements Runnable {
+
+		final SelectorTransport transport;
+		final Selector selector;
+		final Thread thread;
+
+		private final Queue<Runnable> tasks;
+		private final Set<ChannelConnection> connections;
+
+		private volatile boolean running;
+
+		EventLoop(SelectorTransport transport, String name, Selector selector) {
+			this.transport = transport;
+			this.selector = selector;
+			this.thread = new Thread(this, name);
+			this.tasks = new ConcurrentLinkedQueue<Runnable>();
+			this.connections = new HashSet<ChannelConnection>();
+			this.running = true;
+		}
+
+		/** Runs given task on the loop thread, immediately if called from it. */
+		void execute(Runnable task) {
+			if (Thread.currentThread() == thread) {
+				task.run();
+			} else {
+				tasks.add(task);
+				selector.wakeup();
+			}
+		}
+
+		void stop() {
+			running = false;
+			selector.wakeup();
+		}
+
+		void added(ChannelConnection connection) {
+			connections.add(connection);
+		}
+
+		void removed(ChannelConnection connection) {
+			connections.remove(connection);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					runTasks();
+
+					final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+						((ChannelConnection) key.attachment()).handle(key);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("IOException in the event loop");
+				e.printStackTrace();
+			} finally {
+				runTasks();
+				for (ChannelConnection connection : new HashSet<ChannelConnection>(connections)) {
+					connection.close();
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+	}
+}
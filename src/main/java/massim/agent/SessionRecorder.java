@@ -0,0 +1,85 @@
+package massim.agent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records every packet received from the server into a compact binary session file, which can be fed back to an agent by the
+ * {@link SessionReplay}.
+ * <p/>
+ * The file starts with the magic number, the format version, the name of the agent and the wall-clock time of the recording start.
+ * Every packet follows as the time elapsed since the previous packet in microseconds, the packet length and the packet data, the
+ * numbers encoded as variable-length integers.
+ */
+public class SessionRecorder {
+
+	/** Magic number of the session files. */
+	static final int MAGIC = 0x4d415352;
+	/** Version of the session file format. */
+	static final int VERSION = 1;
+
+	private final DataOutputStream output;
+	private long lastNanos;
+	private boolean closed;
+
+	/**
+	 * Constructor of the SessionRecorder class, it creates the session file.
+	 *
+	 * @param file      the session file
+	 * @param agentName name of the recorded agent
+	 * @throws java.io.IOException When the file cannot be created.
+	 */
+	public SessionRecorder(File file, String agentName) throws IOException {
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		output.writeInt(MAGIC);
+		output.writeByte(VERSION);
+		output.writeUTF(agentName == null ? "" : agentName);
+		output.writeLong(System.currentTimeMillis());
+		lastNanos = System.nanoTime();
+		closed = false;
+	}
+
+	/**
+	 * Records one received packet.
+	 *
+	 * @param data   buffer holding the packet data
+	 * @param offset offset of the packet in the buffer
+	 * @param length length of the packet
+	 */
+	public synchronized void record(byte[] data, int offset, int length) {
+		if (closed) return;
+		final long now = System.nanoTime();
+		try {
+			writeVarLong((now - lastNanos) / 1000);
+			writeVarLong(length);
+			output.write(data, offset, length);
+		} catch (IOException e) {
+			System.err.println("unable to record the session");
+			e.printStackTrace();
+			close();
+		}
+		lastNanos = now;
+	}
+
+	/** Flushes and closes the session file. */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			output.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			output.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+}
@@ -0,0 +1,286 @@
+package massim.agent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays a session recorded by the {@link SessionRecorder}. The recorded packets are fed to the agent through the same
+ * <code>processPacket</code> path as the packets received from the server, either as fast as possible or with the original pacing.
+ * The responses of the agent are discarded.
+ * <p/>
+ * An agent alone never leaves its initialization, which waits for the teammates, so the sessions of a whole team are replayed
+ * together into the agents set up as by the {@link StartAgents}, sharing one world model and talking to each other. The packets of
+ * the sessions are interleaved in the order they were received.
+ * <p/>
+ * Usage: <tt>SessionReplay file [paced] [iterations]</tt>, the sessions of the other agents of the team are read from the same
+ * directory.
+ */
+public class SessionReplay {
+
+	/** Result of one replay. */
+	public static class Result {
+
+		private final long[] packetNanos;
+		private final long totalNanos;
+
+		Result(long[] packetNanos, long totalNanos) {
+			this.packetNanos = packetNanos;
+			this.totalNanos = totalNanos;
+		}
+
+		/** Returns the number of the replayed packets. */
+		public int getPackets() {
+			return packetNanos.length;
+		}
+
+		/** Returns the wall-clock duration of the replay in nanoseconds. */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/** Returns the processing time percentile of one packet in nanoseconds, <tt>p</tt> is from the interval [0, 1]. */
+		public long getPercentile(double p) {
+			if (packetNanos.length == 0) return 0;
+			final long[] sorted = Arrays.copyOf(packetNanos, packetNanos.length);
+			Arrays.sort(sorted);
+			final int index = (int) Math.ceil(p * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+
+		@Override
+		public String toString() {
+			long processing = 0;
+			for (long nanos : packetNanos) {
+				processing += nanos;
+			}
+			return "Result [packets=" + packetNanos.length + ", totalMs=" + totalNanos / 1000000
+					+ ", avgUs=" + (packetNanos.length == 0 ? 0 : processing / packetNanos.length / 1000)
+					+ ", p50Us=" + getPercentile(0.5) / 1000 + ", p99Us=" + getPercentile(0.99) / 1000
+					+ ", maxUs=" + getPercentile(1.0) / 1000 + "]";
+		}
+	}
+
+	private final String agentName;
+	private final long startTime;
+	private final List<byte[]> packets;
+	/** Time elapsed before each packet in microseconds. */
+	private long[] delays;
+	/** Position in the replay of a team, the index of the next packet and its time since the recording start in microseconds. */
+	private int next;
+	private long nextTime;
+
+	/**
+	 * Constructor of the SessionReplay class, it loads the whole session into memory.
+	 *
+	 * @param file the session file
+	 * @throws java.io.IOException When the file cannot be read or it is not a session file.
+	 */
+	public SessionReplay(File file) throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			if (input.readInt() != SessionRecorder.MAGIC || input.readByte() != SessionRecorder.VERSION) {
+				throw new IOException("not a session file: " + file);
+			}
+			agentName = input.readUTF();
+			startTime = input.readLong();
+
+			packets = new ArrayList<byte[]>();
+			delays = new long[256];
+			while (true) {
+				final long delay;
+				try {
+					delay = readVarLong(input);
+				} catch (EOFException e) {
+					break;
+				}
+				final byte[] packet = new byte[(int) readVarLong(input)];
+				input.readFully(packet);
+
+				if (packets.size() == delays.length) {
+					delays = Arrays.copyOf(delays, delays.length * 2);
+				}
+				delays[packets.size()] = delay;
+				packets.add(packet);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/** Returns the name of the recorded agent. */
+	public String getAgentName() {
+		return agentName;
+	}
+
+	/** Returns the wall-clock time of the recording start. */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/** Returns the number of the recorded packets. */
+	public int getPacketCount() {
+		return packets.size();
+	}
+
+	/** Returns the data of the recorded packet with given index. */
+	public byte[] getPacket(int index) {
+		return packets.get(index);
+	}
+
+	/**
+	 * Feeds the recorded packets to given agent.
+	 *
+	 * @param agent         the agent, it should be fresh (not connected to any server)
+	 * @param originalPacing true to keep the original time between the packets, false to replay as fast as possible
+	 * @return the result of the replay
+	 */
+	public Result replay(AbstractAgent agent, boolean originalPacing) throws InterruptedException {
+		return replay(Collections.singletonList(this), Collections.singletonList(agent), originalPacing);
+	}
+
+	/**
+	 * Loads the sessions of the team of the agent recorded in given file, they are the files of the agents named as by the
+	 * {@link StartAgents} in the same directory.
+	 *
+	 * @param file the session file of any agent of the team
+	 * @return the sessions ordered by the names of the agents
+	 * @throws java.io.IOException When a file cannot be read or it is not a session file.
+	 */
+	public static List<SessionReplay> loadTeam(File file) throws IOException {
+		final String prefix = getPrefix(new SessionReplay(file).getAgentName());
+		final List<SessionReplay> sessions = new ArrayList<SessionReplay>();
+		for (int i = 1; ; i++) {
+			final File session = new File(file.getAbsoluteFile().getParentFile(), prefix + i + ".session");
+			if (!session.isFile()) break;
+			sessions.add(new SessionReplay(session));
+		}
+		return sessions;
+	}
+
+	/**
+	 * Creates the agents of the team of given sessions as the {@link StartAgents} does, they share one world model and their
+	 * watchdogs are disabled.
+	 *
+	 * @param sessions the sessions of the team, ordered by the names of the agents
+	 * @return the agents in the order of the sessions
+	 */
+	public static List<MASAgent> createAgents(List<SessionReplay> sessions) {
+		final String prefix = getPrefix(sessions.get(0).getAgentName());
+		final String team = prefix.endsWith("-b") ? prefix.substring(0, prefix.length() - 2) : "";
+		final List<MASAgent> agents = StartAgents.createAgents("localhost", 0, sessions.size(), team);
+		for (MASAgent agent : agents) {
+			agent.setWatchdogEnabled(false);
+		}
+		return agents;
+	}
+
+	/**
+	 * Feeds the recorded packets of the sessions to the agents, each session to the agent with the same index. The packets are fed
+	 * in the order they were received by all the agents, one at a time.
+	 *
+	 * @param sessions       the sessions
+	 * @param agents         the agents, they should be fresh (not connected to any server)
+	 * @param originalPacing true to keep the original time between the packets, false to replay as fast as possible
+	 * @return the result of the replay, the processing times of the packets are in the replay order
+	 */
+	public static Result replay(List<SessionReplay> sessions, List<? extends AbstractAgent> agents, boolean originalPacing)
+			throws InterruptedException {
+		if (sessions.size() != agents.size()) throw new IllegalArgumentException("one agent per session is required");
+		int nPackets = 0;
+		long firstStart = Long.MAX_VALUE;
+		for (SessionReplay session : sessions) {
+			nPackets += session.packets.size();
+			firstStart = Math.min(firstStart, session.startTime);
+		}
+		for (int i = 0; i < sessions.size(); i++) {
+			final SessionReplay session = sessions.get(i);
+			session.next = 0;
+			// the sessions have started at different times, the start is recorded in milliseconds only
+			session.nextTime = (session.startTime - firstStart) * 1000 + (session.packets.isEmpty() ? 0 : session.delays[0]);
+			agents.get(i).attachOutputStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+		}
+
+		final long[] packetNanos = new long[nPackets];
+		final long start = System.nanoTime();
+		for (int n = 0; n < nPackets; n++) {
+			int earliest = -1;
+			for (int i = 0; i < sessions.size(); i++) {
+				final SessionReplay session = sessions.get(i);
+				if (session.next < session.packets.size() && (earliest < 0 || session.nextTime < sessions.get(earliest).nextTime)) {
+					earliest = i;
+				}
+			}
+			final SessionReplay session = sessions.get(earliest);
+			if (originalPacing) {
+				final long wait = start + session.nextTime * 1000 - System.nanoTime();
+				if (wait > 0) {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				}
+			}
+			final byte[] packet = session.packets.get(session.next);
+			final long t = System.nanoTime();
+			agents.get(earliest).processPacket(packet, 0, packet.length);
+			packetNanos[n] = System.nanoTime() - t;
+			if (++session.next < session.packets.size()) {
+				session.nextTime += session.delays[session.next];
+			}
+		}
+		return new Result(packetNanos, System.nanoTime() - start);
+	}
+
+	/** Returns the agent name without the trailing number, e.g. <tt>b</tt> or <tt>team-b</tt>. */
+	private static String getPrefix(String agentName) {
+		int end = agentName.length();
+		while (end > 0 && Character.isDigit(agentName.charAt(end - 1))) {
+			end--;
+		}
+		return agentName.substring(0, end);
+	}
+
+	private static long readVarLong(DataInputStream input) throws IOException {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			final int b = input.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: SessionReplay file [paced] [iterations]");
+			return;
+		}
+		final List<SessionReplay> sessions = loadTeam(new File(args[0]));
+		final boolean paced = (args.length > 1) && Boolean.parseBoolean(args[1]);
+		final int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+
+		if (sessions.isEmpty()) {
+			System.err.println("no session of the team found next to " + args[0]);
+			return;
+		}
+		for (SessionReplay replay : sessions) {
+			System.out.println("session of " + replay.getAgentName() + " with " + replay.getPacketCount() + " packets");
+		}
+		for (int i = 0; i < iterations; i++) {
+			System.out.println("iteration " + i + ": " + replay(sessions, createAgents(sessions), paced));
+		}
+	}
+}
@@ -5,28 +5,92 @@ import cz.agents.alite.communication.channel.CommunicationChannelException;
 import cz.agents.alite.communication.channel.DirectCommunicationChannel;
 import cz.agents.alite.communication.channel.DirectCommunicationChannel.ReceiverTable;
 import massim.agent.student.MyAgent;
+import massim.agent.student.game.TeamWorldModel;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class StartAgents {
 
-	public static void main(String[] args) {
-		startAgents("localhost", 12300, 3);
+	/** System property with the directory for recording the sessions of the agents. */
+	public static final String RECORD_DIR_PROPERTY = "massim.record.dir";
+
+	public static void main(String[] args) throws InterruptedException {
+		startAgents("localhost", 12300, 3).awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the agents, each of them in its own thread of a new runtime. The runtime is already shut down, so it only serves for
+	 * waiting until the agents finish.
+	 *
+	 * @return the runtime running the agents
+	 */
+	public static AgentRuntime startAgents(String host, int port, int nAgents) {
+		AgentRuntime runtime = new AgentRuntime();
+		startAgents(host, port, nAgents, "", runtime);
+		runtime.shutdown();
+		return runtime;
+	}
+
+	/**
+	 * Starts one team of agents on the given runtime. The agents are named the same way as by the non-blocking transport.
+	 *
+	 * @return the started agents
+	 * @see #startAgents(String, int, int, String, SelectorTransport)
+	 */
+	public static List<MASAgent> startAgents(String host, int port, int nAgents, String team, AgentRuntime runtime) {
+		List<MASAgent> agents = createAgents(host, port, nAgents, team);
+		runtime.startAll(agents);
+		return agents;
+	}
+
+	/** Starts the agents with all their connections served by the given non-blocking transport. */
+	public static void startAgents(String host, int port, int nAgents, SelectorTransport transport) throws IOException {
+		startAgents(host, port, nAgents, "", transport);
+		transport.setShutdownWhenIdle(true);
 	}
 
-	public static void startAgents(String host, int port, int nAgents) {
+	/**
+	 * Starts one team of agents on the given non-blocking transport. The agents of a named team are called <tt>team-b1</tt>,
+	 * <tt>team-b2</tt>, ... and communicate only with each other.
+	 *
+	 * @return the started agents
+	 */
+	public static List<MASAgent> startAgents(String host, int port, int nAgents, String team, SelectorTransport transport)
+			throws IOException {
+		List<MASAgent> agents = createAgents(host, port, nAgents, team);
+		for (MASAgent agent : agents) {
+			transport.connect(agent);
+		}
+		return agents;
+	}
+
+	/**
+	 * Creates the agents with their communication infrastructure. When the <tt>massim.record.dir</tt> system property is set, the
+	 * session of every agent is recorded into that directory.
+	 */
+	static List<MASAgent> createAgents(String host, int port, int nAgents, String team) {
 		ReceiverTable receiverTable = new DirectCommunicationChannel.DefaultReceiverTable();
 
+		String prefix = team.isEmpty() ? "b" : team + "-b";
 		LinkedList<String> agentNames = new LinkedList<String>();
 
 		for (int i = 1; i <= nAgents; i++) {
-			agentNames.add("b" + i);
+			agentNames.add(prefix + i);
 		}
 
+		List<MASAgent> agents = new LinkedList<MASAgent>();
+		// the agents of the team share one world model
+		TeamWorldModel worldModel = new TeamWorldModel();
+
 		for (int i = 1; i <= nAgents; i++) {
-			String agentName = "b" + i;
+			String agentName = prefix + i;
 
-			final MASAgent agent = new MyAgent(host, port, agentName, "1");
+			final MyAgent agent = new MyAgent(host, port, agentName, "1");
+			agent.setWorldModel(worldModel);
 
 			DefaultCommunicator communicator = new DefaultCommunicator(agentName);
 			try {
@@ -39,14 +103,19 @@ public class StartAgents {
 			// setup communication infrastructure
 			agent.setCommunicator(communicator, agentNames);
 
-			// start in a new thread
-			new Thread(new Runnable() {
-				@Override
-				public void run() {
-					agent.start();
+			String recordDir = System.getProperty(RECORD_DIR_PROPERTY);
+			if (recordDir != null) {
+				try {
+					agent.setSessionRecorder(new SessionRecorder(new File(recordDir, agentName + ".session"), agentName));
+				} catch (IOException e) {
+					System.err.println("unable to record the session of " + agentName);
+					e.printStackTrace();
 				}
-			}).run();
+			}
+
+			agents.add(agent);
 		}
+		return agents;
 	}
 
 }
@@ -0,0 +1,142 @@
+package massim.agent;
+
+/**
+ * Estimates the time available for the deliberation of one step and keeps the per-step slack statistics.
+ * <p/>
+ * The delay between the server timestamp of a message and its local reception is the clock offset plus the transit time of the
+ * message. The minimum of the recent delays is taken as the offset (including the minimal transit), the excess over the minimum is the
+ * jitter of the transit. The round trip needed by the response is estimated as a base round trip plus twice the smoothed jitter.
+ */
+public class StepClock {
+
+	/** Number of the recent messages the offset is estimated from. */
+	private static final int WINDOW = 32;
+	/** Weight of a new sample in the smoothed jitter. */
+	private static final double JITTER_WEIGHT = 0.125;
+
+	private final long[] delays;
+	private int delayCount, delayIndex;
+
+	/** Estimated clock offset (local minus server time) including the minimal transit time. */
+	private long offset;
+	/** Smoothed transit jitter. */
+	private double jitter;
+	/** Transit jitter of the last message. */
+	private long lastJitter;
+
+	/** Round trip always reserved for the response. */
+	private long baseRoundTrip;
+	/** Time reserved for sending the response. */
+	private long safetyMargin;
+
+	/** Slack statistics. */
+	private long steps, missed;
+	private long lastSlack, minSlack, totalSlack;
+
+	/** Constructor of the StepClock class. */
+	public StepClock() {
+		this(2, 20);
+	}
+
+	/**
+	 * Constructor of the StepClock class.
+	 *
+	 * @param baseRoundTrip round trip in milliseconds always reserved for the response
+	 * @param safetyMargin  time in milliseconds reserved for sending the response
+	 */
+	public StepClock(long baseRoundTrip, long safetyMargin) {
+		this.delays = new long[WINDOW];
+		this.baseRoundTrip = baseRoundTrip;
+		this.safetyMargin = safetyMargin;
+		this.minSlack = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Updates the estimates with a message received from the server.
+	 *
+	 * @param serverTime timestamp of the message
+	 * @param localTime  local time of the reception
+	 */
+	public synchronized void onMessage(long serverTime, long localTime) {
+		delays[delayIndex] = localTime - serverTime;
+		delayIndex = (delayIndex + 1) % WINDOW;
+		if (delayCount < WINDOW) delayCount++;
+
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < delayCount; i++) {
+			min = Math.min(min, delays[i]);
+		}
+		offset = min;
+		lastJitter = (localTime - serverTime) - offset;
+		jitter += JITTER_WEIGHT * (lastJitter - jitter);
+	}
+
+	/**
+	 * Returns the time budget for the deliberation of the step, counted from the local reception of the request.
+	 *
+	 * @param serverTime timestamp of the request
+	 * @param deadline   deadline of the request in the server time
+	 * @return the budget in milliseconds, may be negative when the request arrived too late
+	 */
+	public synchronized long getBudget(long serverTime, long deadline) {
+		return (deadline - serverTime) - lastJitter - getRoundTrip() - safetyMargin;
+	}
+
+	/** Records a step answered by the deliberation with given slack (time left before the end of the budget). */
+	public synchronized void onAnswered(long slack) {
+		steps++;
+		lastSlack = slack;
+		minSlack = Math.min(minSlack, slack);
+		totalSlack += slack;
+	}
+
+	/** Records a step answered by the watchdog because the budget ran out. */
+	public synchronized void onMissed() {
+		steps++;
+		missed++;
+		lastSlack = 0;
+		minSlack = Math.min(minSlack, 0);
+	}
+
+	/** Returns the estimated clock offset (local minus server time) including the minimal transit time. */
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	/** Returns the estimated round trip time of the response. */
+	public synchronized long getRoundTrip() {
+		return baseRoundTrip + Math.round(2 * jitter);
+	}
+
+	/** Returns the slack of the last step. */
+	public synchronized long getLastSlack() {
+		return lastSlack;
+	}
+
+	/** Returns the minimal slack over all the steps. */
+	public synchronized long getMinSlack() {
+		return (steps == 0) ? 0 : minSlack;
+	}
+
+	/** Returns the average slack of the steps answered by the deliberation. */
+	public synchronized long getAverageSlack() {
+		final long answered = steps - missed;
+		return (answered == 0) ? 0 : totalSlack / answered;
+	}
+
+	/** Returns the number of the steps. */
+	public synchronized long getSteps() {
+		return steps;
+	}
+
+	/** Returns the number of the steps answered by the watchdog. */
+	public synchronized long getMissed() {
+		return missed;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "StepClock [offset=" + offset + ", roundTrip=" + getRoundTrip() + ", steps=" + steps + ", missed=" + missed
+				+ ", lastSlack=" + lastSlack + ", minSlack=" + getMinSlack() + ", avgSlack=" + getAverageSlack() + "]";
+	}
+}
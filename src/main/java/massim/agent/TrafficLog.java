@@ -0,0 +1,169 @@
+package massim.agent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log of the traffic between the agents and the server. Agent threads only copy the raw packets into a lock-free ring buffer, the log
+ * messages are built and written to the logger by a background thread. When the logger does not accept <code>Level.ALL</code> records
+ * nothing is copied at all. When the ring buffer is full, the packet is dropped instead of blocking the agent.
+ */
+public final class TrafficLog {
+
+	/** Direction of the logged packet. */
+	public enum Direction { INBOUND, OUTBOUND }
+
+	private static final long IDLE_PARK_NANOS = 1000000L;
+
+	/** One slot of the ring buffer. */
+	private static final class Slot {
+		/** Sequence number of the record stored in the slot, written last by the producer. */
+		volatile long published = -1;
+
+		Direction direction;
+		String agentName;
+		long time;
+		byte[] data = new byte[0];
+		int length;
+	}
+
+	private final Logger logger;
+	private final Slot[] slots;
+	private final int mask;
+
+	/** Next sequence number to be claimed by a producer. */
+	private final AtomicLong head;
+	/** Next sequence number to be written by the background thread. */
+	private volatile long tail;
+
+	private final AtomicLong dropped;
+	private final AtomicBoolean writerStarted;
+
+	/**
+	 * Constructor of the TrafficLog class.
+	 *
+	 * @param logger   the logger receiving the log messages
+	 * @param capacity capacity of the ring buffer, rounded up to a power of two
+	 */
+	public TrafficLog(Logger logger, int capacity) {
+		int size = 1;
+		while (size < capacity) size <<= 1;
+
+		this.logger = logger;
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+		}
+		this.mask = size - 1;
+		this.head = new AtomicLong();
+		this.tail = 0;
+		this.dropped = new AtomicLong();
+		this.writerStarted = new AtomicBoolean();
+	}
+
+	/** Returns <tt>true</tt> IFF the packets are being logged. */
+	public boolean isEnabled() {
+		return logger.isLoggable(Level.ALL);
+	}
+
+	/** Returns the number of packets dropped because the ring buffer was full. */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Records one packet, it never blocks the calling thread.
+	 *
+	 * @param direction direction of the packet
+	 * @param agentName name of the agent
+	 * @param data      buffer holding the packet data
+	 * @param offset    offset of the packet in the buffer
+	 * @param length    length of the packet
+	 */
+	public void record(Direction direction, String agentName, byte[] data, int offset, int length) {
+		if (!isEnabled()) return;
+		startWriter();
+
+		long sequence;
+		do {
+			sequence = head.get();
+			if (sequence - tail >= slots.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!head.compareAndSet(sequence, sequence + 1));
+
+		final Slot slot = slots[(int) sequence & mask];
+		if (slot.data.length < length) {
+			slot.data = new byte[Math.max(length, slot.data.length * 2)];
+		}
+		System.arraycopy(data, offset, slot.data, 0, length);
+		slot.length = length;
+		slot.direction = direction;
+		slot.agentName = agentName;
+		slot.time = System.currentTimeMillis();
+		slot.published = sequence;
+	}
+
+	/** Writes all the published records to the logger, called by the background thread and at shutdown only. */
+	private synchronized boolean drain() {
+		boolean any = false;
+		while (true) {
+			final long sequence = tail;
+			final Slot slot = slots[(int) sequence & mask];
+			if (slot.published != sequence) return any;
+
+			final String message;
+			if (slot.direction == Direction.INBOUND) {
+				message = "Server -> Agent: AgentName " + slot.agentName + "\n" + new String(slot.data, 0, slot.length);
+			} else {
+				message = "Agent -> Server:\n" + new String(slot.data, 0, slot.length);
+			}
+			final LogRecord record = new LogRecord(Level.ALL, message);
+			setMillis(record, slot.time);
+			record.setLoggerName(logger.getName());
+			logger.log(record);
+
+			// release the slot for producers
+			tail = sequence + 1;
+			any = true;
+		}
+	}
+
+	/**
+	 * Sets the time of given record to the time the packet has been recorded at, not the time it is written. The setter is deprecated
+	 * since Java 9 in favour of <code>setInstant</code>, which is not available on the older runtimes the agents still run on.
+	 */
+	@SuppressWarnings("deprecation")
+	private static void setMillis(LogRecord record, long millis) {
+		record.setMillis(millis);
+	}
+
+	private void startWriter() {
+		if (writerStarted.get() || !writerStarted.compareAndSet(false, true)) return;
+
+		final Thread writer = new Thread("traffic-log") {
+			@Override
+			public void run() {
+				while (true) {
+					if (!drain()) {
+						LockSupport.parkNanos(IDLE_PARK_NANOS);
+					}
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				drain();
+			}
+		});
+	}
+}
@@ -30,4 +30,15 @@ public class AgentMetadata {
 	public String getName() {
 		return name;
 	}
+
+	/** Returns a copy of the meta-data. */
+	public AgentMetadata copy() {
+		final AgentMetadata copy = new AgentMetadata(name);
+		copy.state = state;
+		copy.number = number;
+		copy.isLeader = isLeader;
+		copy.isScout = isScout;
+		copy.position = position;
+		return copy;
+	}
 }
@@ -0,0 +1,74 @@
+package massim.agent.student;
+
+import massim.agent.student.game.GameMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versioned store of the beliefs of one agent. The agent publishes an immutable {@link Beliefs} snapshot at the end of every
+ * deliberation, that is the consistency boundary: the perception, the messages and the decision of the step are all applied. Other
+ * threads (background planners, speculative reasoners) read the latest snapshot without locks while the agent goes on with the next
+ * perception.
+ * <p/>
+ * A snapshot of the map is not free, the shared map of a team makes all the teammates copy the cells they write next, so the map is
+ * snapshotted only while a reader has asked for it by {@link #addMapReader()} and only when it has changed since the last snapshot.
+ */
+public class BeliefBase {
+
+	private volatile Beliefs current;
+	/** Number of the readers of the map, see {@link #addMapReader()}. */
+	private final AtomicInteger mapReaders = new AtomicInteger();
+	/** Last snapshot of the map and the version of the map it has been taken at, used by the agent only. */
+	private GameMap mapSnapshot;
+	private long mapVersion;
+
+	/** Returns the latest published beliefs, null before the first deliberation. */
+	public Beliefs get() {
+		return current;
+	}
+
+	/** Returns the version of the latest published beliefs, 0 before the first deliberation. */
+	public long getVersion() {
+		final Beliefs beliefs = current;
+		return (beliefs == null) ? 0 : beliefs.getVersion();
+	}
+
+	/**
+	 * Asks for the map in the beliefs, the beliefs published from now on carry a snapshot of it until the reader is removed. The
+	 * beliefs published before have none.
+	 */
+	public void addMapReader() {
+		mapReaders.incrementAndGet();
+	}
+
+	/** Removes a reader added by {@link #addMapReader()}. */
+	public void removeMapReader() {
+		mapReaders.decrementAndGet();
+	}
+
+	/** Publishes given beliefs, called by the agent only. */
+	void publish(Beliefs beliefs) {
+		current = beliefs;
+	}
+
+	/**
+	 * Returns the snapshot of given map for the beliefs published next, called by the agent only. The last snapshot is returned again
+	 * while the map has the same version.
+	 *
+	 * @return the snapshot, null if there is no reader of the map
+	 */
+	GameMap snapshotMap(GameMap map) {
+		if (mapReaders.get() <= 0) {
+			mapSnapshot = null;
+		} else if (mapSnapshot == null || mapVersion != map.getVersion()) {
+			mapSnapshot = map.snapshot();
+			mapVersion = map.getVersion();
+		}
+		return mapSnapshot;
+	}
+
+	@Override
+	public String toString() {
+		return "BeliefBase [current=" + current + "]";
+	}
+}
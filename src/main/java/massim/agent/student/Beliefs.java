@@ -0,0 +1,103 @@
+package massim.agent.student;
+
+import massim.agent.Grid;
+import massim.agent.Position;
+import massim.agent.student.game.Fence;
+import massim.agent.student.game.GameMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the beliefs of an agent after one deliberation. The map is a read-only snapshot sharing the unchanged cells
+ * with the map of the agent, it is taken only for the readers of the map (see {@link BeliefBase#addMapReader()}), the small
+ * collections are copied. A snapshot may be read by any thread without locking.
+ *
+ * @see BeliefBase
+ */
+public final class Beliefs {
+
+	private final long version;
+	private final int step;
+	private final AgentState state;
+	private final GameMap map;
+	private final int myCell, intendedCell;
+	private final Fence currentFence;
+	private final List<Position> desiredPositions, checkpoints;
+	private final Map<String, AgentMetadata> friends;
+
+	Beliefs(long version, int step, AgentState state, GameMap map, int myCell, int intendedCell, Fence currentFence,
+			Collection<Position> desiredPositions, Collection<Position> checkpoints, Map<String, AgentMetadata> friends) {
+		this.version = version;
+		this.step = step;
+		this.state = state;
+		this.map = map;
+		this.myCell = myCell;
+		this.intendedCell = intendedCell;
+		this.currentFence = currentFence;
+		this.desiredPositions = Collections.unmodifiableList(new ArrayList<Position>(desiredPositions));
+		this.checkpoints = Collections.unmodifiableList(new ArrayList<Position>(checkpoints));
+		final Map<String, AgentMetadata> friendsCopy = new LinkedHashMap<String, AgentMetadata>(friends.size());
+		for (Map.Entry<String, AgentMetadata> entry : friends.entrySet()) {
+			friendsCopy.put(entry.getKey(), entry.getValue().copy());
+		}
+		this.friends = Collections.unmodifiableMap(friendsCopy);
+	}
+
+	/** Returns the version of the beliefs, it grows with every published snapshot. */
+	public long getVersion() {
+		return version;
+	}
+
+	/** Returns the simulation step the beliefs have been formed in. */
+	public int getStep() {
+		return step;
+	}
+
+	public AgentState getState() {
+		return state;
+	}
+
+	/** Returns the read-only snapshot of the map, null if no reader has asked for the map by {@link BeliefBase#addMapReader()}. */
+	public GameMap getMap() {
+		return map;
+	}
+
+	/** Returns the cell of the agent, {@link Grid#NONE} if unknown. */
+	public int getMyCell() {
+		return myCell;
+	}
+
+	/** Returns the cell the agent intends to visit, {@link Grid#NONE} if none. */
+	public int getIntendedCell() {
+		return intendedCell;
+	}
+
+	/** Returns the fence to be passed through, null if none. */
+	public Fence getCurrentFence() {
+		return currentFence;
+	}
+
+	public List<Position> getDesiredPositions() {
+		return desiredPositions;
+	}
+
+	/** Returns the checkpoints the agent has not visited yet. */
+	public List<Position> getCheckpoints() {
+		return checkpoints;
+	}
+
+	/** Returns copies of the meta-data of the friends, the later changes of the agent do not show in them. */
+	public Map<String, AgentMetadata> getFriends() {
+		return friends;
+	}
+
+	@Override
+	public String toString() {
+		return "Beliefs [version=" + version + ", step=" + step + ", state=" + state + ", myCell=" + myCell + "]";
+	}
+}
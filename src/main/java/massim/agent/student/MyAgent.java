@@ -2,21 +2,34 @@ package massim.agent.student;
 
 import cz.agents.alite.communication.Message;
 import massim.agent.Action;
+import massim.agent.Grid;
 import massim.agent.MASAgent;
 import massim.agent.MASPerception;
+import massim.agent.PerceptionDelta;
 import massim.agent.Position;
+import massim.agent.student.game.DStarLitePlanner;
+import massim.agent.student.game.DistanceFields;
 import massim.agent.student.game.Fence;
+import massim.agent.student.game.FenceIndex;
+import massim.agent.student.game.FrontierIndex;
 import massim.agent.student.game.GameConstants;
 import massim.agent.student.game.GameMap;
+import massim.agent.student.game.HierarchicalPlanner;
+import massim.agent.student.game.RegionGraph;
+import massim.agent.student.game.SparseMapStore;
+import massim.agent.student.game.TeamMapStore;
+import massim.agent.student.game.TeamWorldModel;
 import massim.agent.student.utils.MessageData;
 import massim.agent.student.utils.MessageUtils;
 
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * MAS agent implementation using BDI architecture.
@@ -25,6 +38,11 @@ public class MyAgent extends MASAgent implements GameConstants {
 
 	private static final boolean INFO = true, DEBUG = false, VERBOSE = false;
 
+	/** Number of the cells of the maps considered large. */
+	private static final int LARGE_MAP = 128 * 128;
+	/** How far (in the multiples of the visibility) the scout goes to a recognized fence. */
+	private static final int FENCE_REACH = 1;
+
 	/** Agents' random generator. */
 	private final Random random;
 
@@ -35,20 +53,43 @@ public class MyAgent extends MASAgent implements GameConstants {
 	private final Queue<Position> desiredPositions;
 	/** Agents' checkpoints to visit. */
 	private final Queue<Position> myCheckpoints;
+	/** Switches of the fences found by the agent, they are not reported again. */
+	private final Set<Integer> foundSwitches;
 
 	/** Agents' number. */
 	private Long myNumber;
 	/** Agents' leader flag. */
 	private Boolean isLeader;
 
+	/** Snapshots of the beliefs published after every deliberation. */
+	private final BeliefBase beliefBase;
+
 	/** Current state of the agent. */
 	private AgentState state;
+	/** World model shared with the teammates, null if the agent keeps its own map. */
+	private TeamWorldModel worldModel;
+	/** View of the shared world model the map is stored in, null if the map is private. */
+	private TeamMapStore teamStore;
 	/** Current state of the map. */
 	private GameMap map;
-	/** Current position of the agent. */
-	private Position myPosition;
-	/** Current position the agent intend to visit. */
-	private Position intendedPosition;
+	/** Distance fields of the checkpoints over the map, shared by the team with the world model, null on the large maps. */
+	private DistanceFields distanceFields;
+	/** Fences recognized in the map, shared by the team with the world model. */
+	private FenceIndex fenceIndex;
+	/** Free regions of the map connected by the fences, shared by the team with the world model, null on the large maps. */
+	private RegionGraph regions;
+	/** Frontier of the explored part of the map, created when the agent starts scouting. */
+	private FrontierIndex frontiers;
+	/** How far the agent sees. */
+	private int visibility;
+	/** Differences between the consecutive perceptions, they are written to the map. */
+	private PerceptionDelta perceptionDelta;
+	/** Current position (map cell) of the agent, {@link Grid#NONE} before the first perception. */
+	private int myCell;
+	/** Current position (map cell) the agent intend to visit, {@link Grid#NONE} if none. */
+	private int intendedCell;
+	/** Frontier cell the scout explores, {@link Grid#NONE} if none. */
+	private int scoutTarget;
 	/** Current fence to be passed through. */
 	private Fence currentFence;
 
@@ -56,15 +97,25 @@ public class MyAgent extends MASAgent implements GameConstants {
 	public MyAgent(String host, int port, String username, String password) {
 		super(host, port, username, password);
 		random = new Random(System.nanoTime());
+		beliefBase = new BeliefBase();
 		friendMetadata = new LinkedHashMap<String, AgentMetadata>(FRIENDS);
 		desiredPositions = new LinkedList<Position>();
 		myCheckpoints = new LinkedList<Position>(CHECKPOINTS);
+		foundSwitches = new HashSet<Integer>();
 		myNumber = null;
 		isLeader = null;
 		state = AgentState.init;
+		worldModel = null;
+		teamStore = null;
 		map = null;
-		myPosition = null;
-		intendedPosition = null;
+		distanceFields = null;
+		fenceIndex = null;
+		regions = null;
+		frontiers = null;
+		perceptionDelta = null;
+		myCell = Grid.NONE;
+		intendedCell = Grid.NONE;
+		scoutTarget = Grid.NONE;
 		currentFence = null;
 	}
 
@@ -72,16 +123,67 @@ public class MyAgent extends MASAgent implements GameConstants {
 	protected void onStart(int gridWidth, int gridHeight, int visibility) {
 		printInfo("START");
 		printDebug("gridWidth=" + gridWidth + " gridHeight=" + gridHeight + " visibility=" + visibility);
-		map = new GameMap(gridWidth, gridHeight);
+		teamStore = (worldModel == null) ? null : joinWorldModel(gridWidth, gridHeight);
+		if (teamStore != null) {
+			map = new GameMap(teamStore);
+		} else if (gridWidth * gridHeight > LARGE_MAP) {
+			// most of a large map is never seen, its tiles are allocated when they are seen first time
+			map = new GameMap(new SparseMapStore(gridWidth, gridHeight));
+		} else {
+			map = new GameMap(gridWidth, gridHeight);
+		}
+		// the agent heads to the same few targets for many steps while the map is discovered, so the paths are repaired, on the large
+		// maps the per-goal state would be too big and the paths are planned over the clusters of the map instead
+		if (gridWidth * gridHeight > LARGE_MAP) {
+			map.setPlanner((teamStore != null)
+					? new HierarchicalPlanner(map, teamStore.getClusterGraph()) : new HierarchicalPlanner(map));
+		} else {
+			map.setPlanner(new DStarLitePlanner(map));
+		}
+		fenceIndex = (teamStore != null) ? teamStore.getFenceIndex() : new FenceIndex(map);
+		// a distance field and the union-find structure take a few ints per cell and a field is computed over the whole grid, too much
+		// for a large map, the planner answers the distances there
+		if (gridWidth * gridHeight > LARGE_MAP) {
+			distanceFields = null;
+			regions = null;
+		} else {
+			distanceFields = (teamStore != null) ? teamStore.getDistanceFields() : new DistanceFields(map);
+			regions = (teamStore != null) ? teamStore.getRegionGraph() : new RegionGraph(map, fenceIndex);
+		}
+		frontiers = null;
+		this.visibility = visibility;
+		perceptionDelta = new PerceptionDelta(gridWidth, gridHeight, map.getDeltaListener());
+		setCellSink(perceptionDelta);
+	}
+
+	/** Joins the shared world model, returns null if it cannot take the grid or another agent, the agent keeps its own map then. */
+	private TeamMapStore joinWorldModel(int gridWidth, int gridHeight) {
+		try {
+			return worldModel.join(getSimulationId(), gridWidth, gridHeight);
+		} catch (IllegalArgumentException e) {
+			printInfo("PRIVATE MAP " + e.getMessage());
+		} catch (IllegalStateException e) {
+			printInfo("PRIVATE MAP " + e.getMessage());
+		}
+		return null;
 	}
 
     @Override
     protected Action deliberate(MASPerception percept) {
 		final long t = System.currentTimeMillis();
 
-		// refresh agents' position and the map
-		myPosition = new Position(percept.getPosX(), percept.getPosY());
-		map.refresh(myPosition, percept.getCellPercepts());
+		// refresh agents' position and the map (the decoded cells are usually written to the map already)
+		myCell = map.getGrid().index(percept.getPosX(), percept.getPosY());
+		map.setStep(percept.getStep());
+		if (teamStore == null) {
+			fenceIndex.setStep(percept.getStep());
+		}
+		map.refresh(myCell, percept.getCells());
+		if (teamStore != null) {
+			// the own map learns the changes of the teammates, the structures of the team the changes of everybody
+			teamStore.pollChanges(map.getChangeDispatcher(), map.getContentDispatcher());
+			teamStore.sync(percept.getStep());
+		}
 
 		processMessages();
 
@@ -114,21 +216,46 @@ public class MyAgent extends MASAgent implements GameConstants {
 			sendCommands();
 		}
 
-		printVerbose("step=" + percept.getStep() +  " action=" + action + " t=" + (System.currentTimeMillis() - t));
+		publishBeliefs(percept.getStep());
+
+		printVerbose("step=" + percept.getStep() +  " action=" + action + " t=" + (System.currentTimeMillis() - t) + " " + perceptionDelta
+				+ " budget=" + getRemainingBudget() + " lastSlack=" + getStepClock().getLastSlack());
         return action;
     }
 
+	/** Returns the snapshots of the beliefs, they may be read by other threads. */
+	public BeliefBase getBeliefBase() {
+		return beliefBase;
+	}
+
+	/** Publishes the snapshot of the current beliefs. */
+	private void publishBeliefs(int step) {
+		beliefBase.publish(new Beliefs(beliefBase.getVersion() + 1, step, state, beliefBase.snapshotMap(map), myCell, intendedCell,
+				currentFence, desiredPositions, myCheckpoints, friendMetadata));
+	}
+
+	/**
+	 * Sets the world model shared with the teammates, the map of the next simulation is stored in it. It must be set before the
+	 * simulation starts.
+	 */
+	public void setWorldModel(TeamWorldModel worldModel) {
+		this.worldModel = worldModel;
+	}
+
 	/** Resets the agent into its initial state. */
 	protected void reset() {
 		printDebug("reset initiated");
 		friendMetadata.clear();
 		desiredPositions.clear();
+		foundSwitches.clear();
 		myNumber = null;
 		isLeader = null;
 		setState(AgentState.init);
 		map.init();
-		myPosition = null;
-		intendedPosition = null;
+		perceptionDelta.reset();
+		myCell = Grid.NONE;
+		intendedCell = Grid.NONE;
+		scoutTarget = Grid.NONE;
 		currentFence = null;
 	}
 
@@ -239,8 +366,13 @@ public class MyAgent extends MASAgent implements GameConstants {
 	private void processFollowerMessage(MessageData data) {
 		final String type = data.getType();
 		if ("foundFence".equals(type)) {
-			// leader self-command
-			desiredPositions.add(currentFence.getPositionBehindFence());
+			// leader self-command, the place behind the fence is checked in the map unless the fence is not recognized yet
+			final int behind;
+			synchronized (fenceIndex) {
+				final int fence = fenceIndex.getFence(map.getGrid().index(currentFence.getSwitchPosition()));
+				behind = (fence < 0) ? Grid.NONE : fenceIndex.getCellBehind(fence);
+			}
+			desiredPositions.add((behind != Grid.NONE) ? map.getGrid().toPosition(behind) : currentFence.getPositionBehindFence());
 			setState(AgentState.walking);
 
 			// command for the follower agents
@@ -260,7 +392,7 @@ public class MyAgent extends MASAgent implements GameConstants {
 			// send agents' number
 			myNumber = random.nextLong();
 			broadcast(MessageUtils.create("myNumber", myNumber));
-			broadcast(MessageUtils.create("myPosition", myPosition));
+			broadcast(MessageUtils.create("myPosition", getMyPosition()));
 		} else if (isLeader == null && friendMetadata.size() == FRIENDS) {
 			// determine the leader agent
 			Long max = myNumber;
@@ -302,41 +434,89 @@ public class MyAgent extends MASAgent implements GameConstants {
 		final Action goForIt = goForCheckpoint();
 		if (goForIt != null) return goForIt;
 
-		if (intendedPosition == null) {
+		if (intendedCell == Grid.NONE) {
 			if (desiredPositions.isEmpty()) {
 				setState(AgentState.ready);
 			} else {
-				intendedPosition = desiredPositions.poll();
-				return map.planMove(myPosition, intendedPosition);
+				intendedCell = map.getGrid().index(desiredPositions.poll());
+				return map.planMove(myCell, intendedCell);
 			}
-		} else if (myPosition.equals(intendedPosition)) {
-			intendedPosition = null;
-			broadcast(MessageUtils.create("myPosition", myPosition));
+		} else if (myCell == intendedCell) {
+			intendedCell = Grid.NONE;
+			broadcast(MessageUtils.create("myPosition", getMyPosition()));
 		} else {
-			return map.planMove(myPosition, intendedPosition);
+			return map.planMove(myCell, intendedCell);
 		}
 
 		return Action.SKIP;
 	}
 
-	/** Agents' scouting mode. */
+	/** Agents' scouting mode, it explores the frontier of the map until a fence it can open is recognized. */
 	private Action doScouting() {
 		final Action goForIt = goForCheckpoint();
 		if (goForIt != null) return goForIt;
 
-		final Action scoutDirection = map.getScoutDirection(myPosition);
-		final Position nextPosition = GameMap.move(myPosition, scoutDirection);
+		// a recognized fence is opened from the cell before its switch
+		final Fence fence = findNewFence();
+		if (fence != null) {
+			final int before = fence.getCellBeforeSwitch(map.getGrid());
+			if (myCell != before) return map.planMove(myCell, before);
 
-		// test for fence switch
-		if (map.get(nextPosition) == GameMap.SWITCH) {
-			final Fence fence = new Fence(nextPosition, scoutDirection);
+			foundSwitches.add(map.getGrid().index(fence.getSwitchPosition()));
 			broadcast(MessageUtils.create("foundFence", fence));
-			broadcast(MessageUtils.create("myPosition", myPosition));
+			broadcast(MessageUtils.create("myPosition", getMyPosition()));
 			setState(AgentState.waiting);
 			return Action.SKIP;
 		}
 
-		return scoutDirection;
+		// otherwise the checkpoint on this side of the fences is visited and the frontier cell with the highest information gain
+		final Action goForReachable = goForReachableCheckpoint();
+		if (goForReachable != null) return goForReachable;
+		if (frontiers == null) {
+			frontiers = new FrontierIndex(map, visibility);
+		}
+		if (scoutTarget == Grid.NONE || !frontiers.isFrontier(scoutTarget)) {
+			scoutTarget = frontiers.getBest();
+		}
+		return (scoutTarget != Grid.NONE) ? map.planMove(myCell, scoutTarget) : map.getIdleWalkDirection(myCell);
+	}
+
+	/**
+	 * Returns the closest recognized fence which has not been found yet and which can be opened from this side. Only the fences in reach
+	 * of the view are taken, the farther ones are left until the agent gets there, so it does not leave its checkpoints behind. The fence
+	 * which has to be passed first on the way to the next checkpoint is preferred.
+	 */
+	private Fence findNewFence() {
+		final Grid grid = map.getGrid();
+		final int[] switches = (regions == null || myCheckpoints.isEmpty())
+				? null : regions.getSwitchesToHold(myCell, grid.index(myCheckpoints.peek()));
+		final int routeSwitch = (switches == null || switches.length == 0) ? Grid.NONE : switches[0];
+		Fence closest = null;
+		int closestDistance = DistanceFields.INFINITY;
+		for (int i = 0; ; i++) {
+			// the index may be shared with the teammates, the fence count is read together with the fence
+			final Fence fence;
+			synchronized (fenceIndex) {
+				if (i >= fenceIndex.getFenceCount()) break;
+				fence = fenceIndex.toFence(i);
+			}
+			if (fence == null) continue;
+			final int switchCell = grid.index(fence.getSwitchPosition());
+			if (foundSwitches.contains(switchCell)) continue;
+
+			final int before = fence.getCellBeforeSwitch(grid);
+			if (before == Grid.NONE || !map.isTraversable(before)
+					|| Math.max(Math.abs(grid.x(before) - grid.x(myCell)), Math.abs(grid.y(before) - grid.y(myCell))) > FENCE_REACH * visibility) {
+				continue;
+			}
+			final int distance = getDistance(before);
+			if (distance < DistanceFields.INFINITY && switchCell == routeSwitch) return fence;
+			if (distance < closestDistance) {
+				closest = fence;
+				closestDistance = distance;
+			}
+		}
+		return closest;
 	}
 
 	/** Agents' (blind) idle walk mode. */
@@ -344,8 +524,19 @@ public class MyAgent extends MASAgent implements GameConstants {
 		final Action goForIt = goForCheckpoint();
 		if (goForIt != null) return goForIt;
 
+		// the scout may find the next fence soon, so the checkpoint on this side of the fences is visited meanwhile
+		final Action goForReachable = goForReachableCheckpoint();
+		if (goForReachable != null) return goForReachable;
+
 		// move with 50% probability
-		return (random.nextFloat() < 0.5f) ? Action.SKIP : map.getIdleWalkDirection(myPosition);
+		return (random.nextFloat() < 0.5f) ? Action.SKIP : map.getIdleWalkDirection(myCell);
+	}
+
+	/** Go for the next checkpoint if it can be reached without passing a fence. */
+	private Action goForReachableCheckpoint() {
+		if (myCheckpoints.isEmpty()) return null;
+		final int checkpointCell = map.getGrid().index(myCheckpoints.peek());
+		return (getDistance(checkpointCell) < DistanceFields.INFINITY) ? map.planMove(myCell, checkpointCell) : null;
 	}
 
 	/** Go for the next checkpoint if it's near enough. */
@@ -356,22 +547,40 @@ public class MyAgent extends MASAgent implements GameConstants {
 		if (myCheckpoints.isEmpty()) {
 			printInfo("FINISHED");
 			setState(AgentState.finished);
-			return map.getIdleWalkDirection(myPosition);
+			return map.getIdleWalkDirection(myCell);
 		}
 
 		final Position checkpoint = myCheckpoints.peek();
-		if (myPosition.equals(checkpoint)) {
+		final int checkpointCell = map.getGrid().index(checkpoint);
+		if (myCell == checkpointCell) {
 			printInfo("CHECKPOINT " + checkpoint);
 			myCheckpoints.remove();
 			return Action.SKIP;
 		}
-		if (GameMap.isNearCheckpoint(myPosition, checkpoint)) {
-			return map.planMove(myPosition, checkpoint);
+		if (map.isNearCheckpoint(myCell, checkpointCell)) {
+			if (distanceFields == null) return map.planMove(myCell, checkpointCell);
+			final Action action = distanceFields.getNextAction(myCell, checkpointCell);
+			return (action != Action.SKIP) ? action : map.planDirectMove(myCell, checkpointCell);
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Returns the path cost from the agent to given cell, {@link DistanceFields#INFINITY} if the cell cannot be reached. On the large
+	 * maps it is the number of the moves of the planned path, the costs are compared with each other only.
+	 */
+	private int getDistance(int cell) {
+		if (distanceFields != null) return distanceFields.getDistance(myCell, cell);
+		final int moves = map.getPlanner().plan(myCell, cell);
+		return (moves < 0) ? DistanceFields.INFINITY : moves;
+	}
+
+	/** Returns the current position of the agent, it is only created for the messages. */
+	private Position getMyPosition() {
+		return map.getGrid().toPosition(myCell);
+	}
+
 	/** Performs a random walk. */
 	private Action doRandomWalk() {
 		return ACTIONS[random.nextInt(ACTIONS.length - 1)];
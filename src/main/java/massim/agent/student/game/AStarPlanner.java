@@ -0,0 +1,30 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+/**
+ * A* path planner expanding all the 8 neighbouring cells, guided by the octile distance.
+ */
+public class AStarPlanner extends AbstractPathPlanner {
+
+	/** Constructor of the AStarPlanner class. */
+	public AStarPlanner(GameMap map) {
+		super(map);
+	}
+
+	@Override
+	void expand(int cell, int parent) {
+		final int x = cell % width, y = cell / width;
+		for (Action move : Grid.MOVES) {
+			final int dx = Grid.getDeltaX(move), dy = Grid.getDeltaY(move);
+			if (!isWalkable(x + dx, y + dy)) continue;
+			if (dx != 0 && dy != 0) {
+				if (!isWalkable(x + dx, y) || !isWalkable(x, y + dy)) continue;
+				relax(cell, cell + dy * width + dx, DIAGONAL);
+			} else {
+				relax(cell, cell + dy * width + dx, STRAIGHT);
+			}
+		}
+	}
+}
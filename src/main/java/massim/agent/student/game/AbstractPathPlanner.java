@@ -0,0 +1,189 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Best-first search over the cells of a map shared by the path planners. The buffers are allocated once per map and they are
+ * invalidated by the search number, so a new search does not clear them.
+ */
+abstract class AbstractPathPlanner implements PathPlanner {
+
+	/** Costs of the straight and of the diagonal move. */
+	static final int STRAIGHT = 10, DIAGONAL = 14;
+
+	final GameMap map;
+	final Grid grid;
+	final int width, height;
+
+	/** Cost from the start, parent cell and the number of the search the cell has been opened or closed in. */
+	private final int[] cost, parent, opened, closed;
+	private int search;
+
+	/** Binary heap of the open cells, the priority in the upper half and the cell in the lower half of the entry. */
+	private long[] heap;
+	private int heapSize;
+
+	/** Cells of the last path, the waypoints of the path reversed. */
+	private final int[] path, waypoints;
+	private int pathLength;
+	private int start, expanded;
+
+	/** The goal of the current search. */
+	int goal;
+
+	AbstractPathPlanner(GameMap map) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.width = grid.getWidth();
+		this.height = grid.getHeight();
+		final int size = grid.size();
+		cost = new int[size];
+		parent = new int[size];
+		opened = new int[size];
+		closed = new int[size];
+		heap = new long[64];
+		path = new int[size];
+		waypoints = new int[size];
+		pathLength = -1;
+	}
+
+	@Override
+	public int plan(int from, int to) {
+		if (++search == Integer.MAX_VALUE) {
+			Arrays.fill(opened, 0);
+			Arrays.fill(closed, 0);
+			search = 1;
+		}
+		start = from;
+		goal = to;
+		heapSize = 0;
+		expanded = 0;
+		pathLength = -1;
+
+		if (from == to) {
+			pathLength = 0;
+			return pathLength;
+		}
+		if (!map.isTraversable(to)) return -1;
+
+		opened[from] = search;
+		cost[from] = 0;
+		parent[from] = Grid.NONE;
+		push(heuristic(from, to), from);
+		while (heapSize > 0) {
+			final int cell = (int) pop();
+			if (closed[cell] == search) continue;
+			closed[cell] = search;
+			expanded++;
+			if (cell == to) {
+				buildPath();
+				return pathLength;
+			}
+			expand(cell, parent[cell]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens the successors of given cell by calling {@link #relax(int, int, int)}.
+	 *
+	 * @param cell   the expanded cell
+	 * @param parent the cell the expanded cell has been reached from, {@link Grid#NONE} for the start
+	 */
+	abstract void expand(int cell, int parent);
+
+	/** Opens given successor of given cell if it is reached cheaper than before. */
+	final void relax(int cell, int next, int moveCost) {
+		if (closed[next] == search) return;
+		final int nextCost = cost[cell] + moveCost;
+		if (opened[next] != search || nextCost < cost[next]) {
+			opened[next] = search;
+			cost[next] = nextCost;
+			parent[next] = cell;
+			push(nextCost + heuristic(next, goal), next);
+		}
+	}
+
+	/** Returns <tt>true</tt> IFF given coordinates are inside the map and the cell can be traversed. */
+	final boolean isWalkable(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height && map.isTraversable(y * width + x);
+	}
+
+	/** Returns the octile distance between given cells. */
+	final int heuristic(int from, int to) {
+		final int dx = Math.abs(from % width - to % width), dy = Math.abs(from / width - to / width);
+		return STRAIGHT * Math.max(dx, dy) + (DIAGONAL - STRAIGHT) * Math.min(dx, dy);
+	}
+
+	@Override
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	@Override
+	public int getPathCell(int step) {
+		return path[step];
+	}
+
+	@Override
+	public Action getNextAction() {
+		return (pathLength > 0) ? grid.getAction(start, path[0]) : Action.SKIP;
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/** Builds the path from the parents, the consecutive waypoints lie on a straight or a diagonal line. */
+	private void buildPath() {
+		int count = 0;
+		for (int cell = goal; cell != Grid.NONE; cell = parent[cell]) {
+			waypoints[count++] = cell;
+		}
+		pathLength = 0;
+		for (int i = count - 1; i > 0; i--) {
+			final int from = waypoints[i], to = waypoints[i - 1];
+			final int dx = Integer.signum(to % width - from % width), dy = Integer.signum(to / width - from / width);
+			final int step = dy * width + dx;
+			for (int cell = from; cell != to; ) {
+				cell += step;
+				path[pathLength++] = cell;
+			}
+		}
+	}
+
+	private void push(int priority, int cell) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		}
+		final long entry = ((long) priority << 32) | cell;
+		int i = heapSize++;
+		while (i > 0) {
+			final int up = (i - 1) >>> 1;
+			if (heap[up] <= entry) break;
+			heap[i] = heap[up];
+			i = up;
+		}
+		heap[i] = entry;
+	}
+
+	private long pop() {
+		final long top = heap[0];
+		final long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+}
@@ -0,0 +1,313 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Map storage keeping one bitset per content class, bit <tt>i</tt> of a bitset stands for the cell with index <tt>i</tt>. Besides the
+ * per-cell queries it supports word-parallel operations over whole sets of cells: dilation to the neighbouring cells, detection of
+ * the exploration frontier and the reachability flood fill.
+ * <p/>
+ * The bitsets of the operations are created by {@link #newBitset()}, the operations use internal buffers, so they do not allocate but
+ * the store must not be used from several threads at once. A snapshot copies the bitsets (one bit per cell and content class), it
+ * has buffers of its own, so the operations over it may run in another thread.
+ */
+public class BitboardMapStore implements MapStore {
+
+	/** The content classes, in the order of the bitsets. */
+	private static final char[] CONTENTS = {
+			GameMap.FREE, GameMap.WALL, GameMap.FENCE, GameMap.FENCE_OPEN, GameMap.SWITCH, GameMap.AGENT, GameMap.UNKNOWN
+	};
+
+	private final Grid grid;
+	private final int width, size, words;
+
+	/** Bitsets of the content classes and of the passable cells (free or open fence). */
+	private final long[][] contents;
+	private final long[] passable;
+
+	/** Cells of the first and of the last column. */
+	private final long[] firstColumn, lastColumn;
+	/** Buffers of the operations. */
+	private final long[] tmpA, tmpB, tmpC;
+	/** Set for the snapshots, the writes are refused. */
+	private final boolean readOnly;
+
+	/** Constructor of the BitboardMapStore class. */
+	public BitboardMapStore(int width, int height) {
+		this.grid = new Grid(width, height);
+		this.width = width;
+		this.size = grid.size();
+		this.words = (size + 63) >>> 6;
+
+		contents = new long[CONTENTS.length][words];
+		passable = new long[words];
+		firstColumn = new long[words];
+		lastColumn = new long[words];
+		for (int y = 0; y < height; y++) {
+			set(firstColumn, grid.index(0, y));
+			set(lastColumn, grid.index(width - 1, y));
+		}
+		tmpA = new long[words];
+		tmpB = new long[words];
+		tmpC = new long[words];
+		readOnly = false;
+		clear();
+	}
+
+	/** Constructor of a read-only snapshot of given store. */
+	private BitboardMapStore(BitboardMapStore store) {
+		this.grid = store.grid;
+		this.width = store.width;
+		this.size = store.size;
+		this.words = store.words;
+
+		contents = new long[CONTENTS.length][];
+		for (int i = 0; i < CONTENTS.length; i++) {
+			contents[i] = store.contents[i].clone();
+		}
+		passable = store.passable.clone();
+		firstColumn = store.firstColumn;
+		lastColumn = store.lastColumn;
+		tmpA = new long[words];
+		tmpB = new long[words];
+		tmpC = new long[words];
+		readOnly = true;
+	}
+
+	@Override
+	public Grid getGrid() {
+		return grid;
+	}
+
+	@Override
+	public char get(int cell) {
+		final int word = cell >>> 6;
+		final long bit = 1L << cell;
+		for (int i = 0; i < CONTENTS.length; i++) {
+			if ((contents[i][word] & bit) != 0) return CONTENTS[i];
+		}
+		return GameMap.UNKNOWN;
+	}
+
+	@Override
+	public boolean set(int cell, char content) {
+		checkWritable();
+		final int word = cell >>> 6;
+		final long bit = 1L << cell;
+		final int index = indexOf(content);
+		for (int i = 0; i < CONTENTS.length; i++) {
+			if (i == index) {
+				contents[i][word] |= bit;
+			} else {
+				contents[i][word] &= ~bit;
+			}
+		}
+		if (content == GameMap.FREE || content == GameMap.FENCE_OPEN) {
+			passable[word] |= bit;
+		} else {
+			passable[word] &= ~bit;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isPassable(int cell) {
+		return (passable[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	@Override
+	public void setStep(int step) {
+		checkWritable();
+	}
+
+	@Override
+	public boolean isStamped() {
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		checkWritable();
+		for (long[] bits : contents) {
+			Arrays.fill(bits, 0);
+		}
+		Arrays.fill(passable, 0);
+		final long[] unknown = contents[indexOf(GameMap.UNKNOWN)];
+		Arrays.fill(unknown, -1L);
+		trim(unknown);
+	}
+
+	@Override
+	public MapStore snapshot() {
+		return readOnly ? this : new BitboardMapStore(this);
+	}
+
+	private void checkWritable() {
+		if (readOnly) throw new UnsupportedOperationException("read-only snapshot of the map");
+	}
+
+	/** Returns new empty bitset of the grid size. */
+	public long[] newBitset() {
+		return new long[words];
+	}
+
+	/** Copies the cells with given content into given bitset. */
+	public void copyCells(char content, long[] out) {
+		System.arraycopy(contents[indexOf(content)], 0, out, 0, words);
+	}
+
+	/** Copies the passable cells into given bitset. */
+	public void copyPassable(long[] out) {
+		System.arraycopy(passable, 0, out, 0, words);
+	}
+
+	/**
+	 * Dilates given cells to their 8 neighbouring cells.
+	 *
+	 * @param cells the cells
+	 * @param out   output of the cells and their neighbours, it may be the same as the input
+	 */
+	public void dilate(long[] cells, long[] out) {
+		// horizontal neighbours, the bits shifted over the row boundary are masked off
+		shiftDown(cells, 1, tmpA);
+		andNot(tmpA, lastColumn);
+		shiftUp(cells, 1, tmpB);
+		andNot(tmpB, firstColumn);
+		for (int i = 0; i < words; i++) {
+			tmpC[i] = cells[i] | tmpA[i] | tmpB[i];
+		}
+		// vertical neighbours of the row-dilated cells
+		shiftDown(tmpC, width, tmpA);
+		shiftUp(tmpC, width, tmpB);
+		for (int i = 0; i < words; i++) {
+			out[i] = tmpC[i] | tmpA[i] | tmpB[i];
+		}
+	}
+
+	/**
+	 * Finds the exploration frontier: the passable cells next to an unknown cell.
+	 *
+	 * @param out output of the frontier cells
+	 * @return the number of the frontier cells
+	 */
+	public int frontier(long[] out) {
+		dilate(contents[indexOf(GameMap.UNKNOWN)], out);
+		int count = 0;
+		for (int i = 0; i < words; i++) {
+			out[i] &= passable[i];
+			count += Long.bitCount(out[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the cells reachable from given cell over the passable cells (8-connected). The starting cell is always included.
+	 *
+	 * @param from the starting cell
+	 * @param out  output of the reachable cells
+	 * @return the number of the reachable cells
+	 */
+	public int reachable(int from, long[] out) {
+		Arrays.fill(out, 0);
+		set(out, from);
+		int count = 1;
+		while (true) {
+			dilate(out, out);
+			int newCount = 0;
+			for (int i = 0; i < words; i++) {
+				out[i] &= passable[i];
+				newCount += Long.bitCount(out[i]);
+			}
+			set(out, from);
+			if (!isSet(passable, from)) newCount++;
+			if (newCount == count) return count;
+			count = newCount;
+		}
+	}
+
+	/** Returns <tt>true</tt> IFF given cell is set in given bitset. */
+	public static boolean isSet(long[] bits, int cell) {
+		return (bits[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/** Sets given cell in given bitset. */
+	public static void set(long[] bits, int cell) {
+		bits[cell >>> 6] |= 1L << cell;
+	}
+
+	/** Returns the number of the cells set in given bitset. */
+	public static int count(long[] bits) {
+		int count = 0;
+		for (long word : bits) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/** Returns the first cell set in given bitset at or after given cell, -1 if there is none. */
+	public static int nextCell(long[] bits, int from) {
+		int word = from >>> 6;
+		if (word >= bits.length) return -1;
+		long remaining = bits[word] & (-1L << from);
+		while (remaining == 0) {
+			if (++word == bits.length) return -1;
+			remaining = bits[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(remaining);
+	}
+
+	private static int indexOf(char content) {
+		for (int i = 0; i < CONTENTS.length; i++) {
+			if (CONTENTS[i] == content) return i;
+		}
+		throw new IllegalArgumentException("unknown content '" + content + "'");
+	}
+
+	/** Sets <tt>out[i] = bits[i - n]</tt>, the cells move to the higher indices. */
+	private void shiftUp(long[] bits, int n, long[] out) {
+		final int wordShift = n >>> 6, bitShift = n & 63;
+		for (int i = words - 1; i >= 0; i--) {
+			final int src = i - wordShift;
+			long value = 0;
+			if (src >= 0) {
+				value = bits[src] << bitShift;
+				if (bitShift != 0 && src > 0) {
+					value |= bits[src - 1] >>> (64 - bitShift);
+				}
+			}
+			out[i] = value;
+		}
+		trim(out);
+	}
+
+	/** Sets <tt>out[i] = bits[i + n]</tt>, the cells move to the lower indices. */
+	private void shiftDown(long[] bits, int n, long[] out) {
+		final int wordShift = n >>> 6, bitShift = n & 63;
+		for (int i = 0; i < words; i++) {
+			final int src = i + wordShift;
+			long value = 0;
+			if (src < words) {
+				value = bits[src] >>> bitShift;
+				if (bitShift != 0 && src + 1 < words) {
+					value |= bits[src + 1] << (64 - bitShift);
+				}
+			}
+			out[i] = value;
+		}
+	}
+
+	private void andNot(long[] bits, long[] mask) {
+		for (int i = 0; i < words; i++) {
+			bits[i] &= ~mask[i];
+		}
+	}
+
+	/** Clears the bits beyond the last cell. */
+	private void trim(long[] bits) {
+		if ((size & 63) != 0) {
+			bits[words - 1] &= (1L << size) - 1;
+		}
+	}
+}
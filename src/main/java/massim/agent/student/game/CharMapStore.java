@@ -0,0 +1,104 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Map storage keeping one char per cell. The cells are split into chunks which are shared with the snapshots and copied on the first
+ * write after a snapshot.
+ */
+public class CharMapStore implements MapStore {
+
+	/** Number of the cells of a chunk, a power of two. */
+	static final int CHUNK_BITS = 8, CHUNK_SIZE = 1 << CHUNK_BITS, CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final Grid grid;
+	private final char[][] chunks;
+	/** Snapshot epoch the chunks have been copied in, a chunk of an older epoch is shared with a snapshot. */
+	private final int[] chunkEpochs;
+	private int epoch;
+
+	/** Constructor of the CharMapStore class. */
+	public CharMapStore(int width, int height) {
+		grid = new Grid(width, height);
+		chunks = new char[(grid.size() + CHUNK_MASK) >>> CHUNK_BITS][CHUNK_SIZE];
+		chunkEpochs = new int[chunks.length];
+		clear();
+	}
+
+	@Override
+	public Grid getGrid() {
+		return grid;
+	}
+
+	@Override
+	public char get(int cell) {
+		return chunks[cell >>> CHUNK_BITS][cell & CHUNK_MASK];
+	}
+
+	@Override
+	public boolean set(int cell, char content) {
+		final int chunk = cell >>> CHUNK_BITS;
+		if (chunkEpochs[chunk] != epoch) {
+			chunks[chunk] = chunks[chunk].clone();
+			chunkEpochs[chunk] = epoch;
+		}
+		chunks[chunk][cell & CHUNK_MASK] = content;
+		return true;
+	}
+
+	@Override
+	public boolean isPassable(int cell) {
+		final char content = get(cell);
+		return content == GameMap.FREE || content == GameMap.FENCE_OPEN;
+	}
+
+	@Override
+	public void setStep(int step) {
+	}
+
+	@Override
+	public boolean isStamped() {
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < chunks.length; i++) {
+			if (chunkEpochs[i] != epoch) {
+				chunks[i] = new char[CHUNK_SIZE];
+				chunkEpochs[i] = epoch;
+			}
+			Arrays.fill(chunks[i], GameMap.UNKNOWN);
+		}
+	}
+
+	@Override
+	public MapStore snapshot() {
+		epoch++;
+		return new Snapshot(grid, chunks.clone());
+	}
+
+	/** Snapshot sharing the chunks of the store. */
+	private static final class Snapshot extends ReadOnlyMapStore {
+
+		private final Grid grid;
+		private final char[][] chunks;
+
+		Snapshot(Grid grid, char[][] chunks) {
+			this.grid = grid;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Grid getGrid() {
+			return grid;
+		}
+
+		@Override
+		public char get(int cell) {
+			return chunks[cell >>> CHUNK_BITS][cell & CHUNK_MASK];
+		}
+	}
+}
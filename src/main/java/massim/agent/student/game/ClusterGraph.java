@@ -0,0 +1,595 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Abstract graph of the hierarchical path planning (HPA*). The map is split into square clusters, the traversable openings between the
+ * neighbouring clusters (entrances) get a transition node on each side and the nodes of one cluster are connected by the costs of the
+ * local paths between them. A path is searched in this graph first, then refined into cells by searches limited to single clusters.
+ * <p/>
+ * The graph depends on the map only, so the agents of a team sharing a {@link TeamWorldModel} use one instance, see
+ * {@link TeamMapStore#getClusterGraph()}, each through its own {@link HierarchicalPlanner}. The graph listens to the traversability
+ * changes of the map, only the entrances and the inner edges of the changed clusters are rebuilt on the next search. The methods are
+ * synchronized.
+ */
+public class ClusterGraph implements GameMap.CellListener {
+
+	/** Cost of the unreachable cells. */
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+	/** Entrances at least this long get a transition at both ends, the shorter ones one in the middle. */
+	private static final int LONG_ENTRANCE = 6;
+
+	private final GameMap map;
+	private final Grid grid;
+	private final int width, height, clusterSize, clustersX, clustersY;
+	/** Number of the borders between horizontally neighbouring clusters, the borders between the vertical neighbours follow them. */
+	private final int verticalBorders;
+
+	/** Clusters whose inner edges and borders whose entrances need to be rebuilt. */
+	private final boolean[] dirtyCluster, dirtyBorder;
+	private final int[] dirtyClusters, dirtyBorders;
+	private int dirtyClusterCount, dirtyBorderCount;
+
+	/** Nodes of the abstract graph: their cell, cluster and the transition node on the other side of the border. */
+	private int[] nodeCell, nodeCluster, nodePartner;
+	/** Inner edges of the nodes, to the nodes of the same cluster. */
+	private int[][] edgeTargets, edgeCosts;
+	private int[] edgeCounts;
+	private int nodeCount;
+	/** Released node numbers to reuse. */
+	private int[] freeNodes;
+	private int freeCount;
+	/** Transition nodes of the borders. */
+	private final int[][] borderNodes;
+	private final int[] borderNodeCounts;
+
+	/** Abstract search: cost from the start, parent node, search number of the opened and of the closed nodes. */
+	private int[] nodeCost, nodeParent, nodeOpened, nodeClosed;
+	/** Costs of the local paths from the start and to the goal of the nodes of their clusters. */
+	private int[] nodeFromStart, nodeToGoal;
+	private int nodeSearch;
+
+	/** Local search limited to one cluster, the buffers are invalidated by the search number. */
+	private final int[] cellCost, cellParent, cellOpened;
+	private int cellSearch;
+
+	/** Binary heap of both searches, the priority in the upper half and the cell or node in the lower half of the entry. */
+	private long[] heap = new long[64];
+	private int heapSize;
+
+	/** Buffers of the nodes of a cluster, of the abstract path and of a reversed local path. */
+	private int[] clusterNodes = new int[16], startNodes = new int[16], goalNodes = new int[16], abstractPath = new int[64];
+	private final int[] segment;
+
+	/** Cells of the last found path without its start. */
+	private int[] route = new int[64];
+	private int routeLength, expanded;
+
+	/** Constructor of the ClusterGraph class with the clusters of 16x16 cells. */
+	public ClusterGraph(GameMap map) {
+		this(map, 16);
+	}
+
+	/**
+	 * Constructor of the ClusterGraph class, the graph registers itself as a listener of the map.
+	 *
+	 * @param map         the map
+	 * @param clusterSize size of the side of a cluster
+	 */
+	public ClusterGraph(GameMap map, int clusterSize) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.width = grid.getWidth();
+		this.height = grid.getHeight();
+		this.clusterSize = Math.max(2, clusterSize);
+		this.clustersX = (width + this.clusterSize - 1) / this.clusterSize;
+		this.clustersY = (height + this.clusterSize - 1) / this.clusterSize;
+		this.verticalBorders = (clustersX - 1) * clustersY;
+
+		final int clusters = clustersX * clustersY, borders = verticalBorders + clustersX * (clustersY - 1);
+		dirtyCluster = new boolean[clusters];
+		dirtyClusters = new int[clusters];
+		dirtyBorder = new boolean[borders];
+		dirtyBorders = new int[borders];
+		borderNodes = new int[borders][4];
+		borderNodeCounts = new int[borders];
+
+		allocateNodes(64);
+		freeNodes = new int[16];
+
+		final int size = grid.size();
+		cellCost = new int[size];
+		cellParent = new int[size];
+		cellOpened = new int[size];
+		segment = new int[this.clusterSize * this.clusterSize];
+
+		markAll();
+		map.addCellListener(this);
+	}
+
+	@Override
+	public synchronized void traversabilityChanged(int cell) {
+		final int x = cell % width, y = cell / width;
+		final int cx = x / clusterSize, cy = y / clusterSize;
+		markCluster(cy * clustersX + cx);
+		if (x % clusterSize == clusterSize - 1 && cx < clustersX - 1) markBorder(cy * (clustersX - 1) + cx);
+		if (x % clusterSize == 0 && cx > 0) markBorder(cy * (clustersX - 1) + cx - 1);
+		if (y % clusterSize == clusterSize - 1 && cy < clustersY - 1) markBorder(verticalBorders + cy * clustersX + cx);
+		if (y % clusterSize == 0 && cy > 0) markBorder(verticalBorders + (cy - 1) * clustersX + cx);
+	}
+
+	@Override
+	public synchronized void mapCleared() {
+		markAll();
+	}
+
+	/** Returns the number of the nodes of the abstract graph, the entrances of the changed clusters are rebuilt first. */
+	public synchronized int getNodeCount() {
+		ensureGraph();
+		return nodeCount - freeCount;
+	}
+
+	/**
+	 * Finds a path between given cells, the changed clusters are rebuilt first.
+	 *
+	 * @param from the starting cell
+	 * @param to   the goal cell, another one than the start
+	 * @return the cells of the path without the start, null if there is no path
+	 */
+	public synchronized int[] findPath(int from, int to) {
+		expanded = 0;
+		if (!map.isTraversable(to)) return null;
+
+		ensureGraph();
+		final int startNode = allocateNode(from, -1), goalNode = allocateNode(to, -1);
+		int[] path = null;
+		if (searchAbstract(startNode, goalNode) && refine(startNode, goalNode)) {
+			path = Arrays.copyOf(route, routeLength);
+		}
+		releaseNode(goalNode);
+		releaseNode(startNode);
+		return path;
+	}
+
+	/** Returns the number of the abstract nodes and of the cells expanded by the last search. */
+	public synchronized int getExpanded() {
+		return expanded;
+	}
+
+	private void markAll() {
+		for (int i = 0; i < dirtyCluster.length; i++) {
+			markCluster(i);
+		}
+		for (int i = 0; i < dirtyBorder.length; i++) {
+			markBorder(i);
+		}
+	}
+
+	private void markCluster(int cluster) {
+		if (dirtyCluster[cluster]) return;
+		dirtyCluster[cluster] = true;
+		dirtyClusters[dirtyClusterCount++] = cluster;
+	}
+
+	private void markBorder(int border) {
+		if (dirtyBorder[border]) return;
+		dirtyBorder[border] = true;
+		dirtyBorders[dirtyBorderCount++] = border;
+	}
+
+	/** Rebuilds the entrances of the changed borders and the inner edges of the changed clusters. */
+	private void ensureGraph() {
+		for (int i = 0; i < dirtyBorderCount; i++) {
+			final int border = dirtyBorders[i];
+			dirtyBorder[border] = false;
+			for (int j = 0; j < borderNodeCounts[border]; j++) {
+				releaseNode(borderNodes[border][j]);
+			}
+			borderNodeCounts[border] = 0;
+			buildEntrances(border);
+		}
+		dirtyBorderCount = 0;
+		for (int i = 0; i < dirtyClusterCount; i++) {
+			final int cluster = dirtyClusters[i];
+			dirtyCluster[cluster] = false;
+			buildEdges(cluster);
+		}
+		dirtyClusterCount = 0;
+	}
+
+	/** Finds the entrances of given border and creates their transition nodes. */
+	private void buildEntrances(int border) {
+		final int first, step, across, length, clusterA, clusterB;
+		if (border < verticalBorders) {
+			final int cx = border % (clustersX - 1), cy = border / (clustersX - 1);
+			first = cy * clusterSize * width + (cx + 1) * clusterSize - 1;
+			step = width;
+			across = 1;
+			length = Math.min(clusterSize, height - cy * clusterSize);
+			clusterA = cy * clustersX + cx;
+			clusterB = clusterA + 1;
+		} else {
+			final int cx = (border - verticalBorders) % clustersX, cy = (border - verticalBorders) / clustersX;
+			first = ((cy + 1) * clusterSize - 1) * width + cx * clusterSize;
+			step = 1;
+			across = width;
+			length = Math.min(clusterSize, width - cx * clusterSize);
+			clusterA = cy * clustersX + cx;
+			clusterB = clusterA + clustersX;
+		}
+		// the clusters on both sides get new transition nodes
+		markCluster(clusterA);
+		markCluster(clusterB);
+
+		int entrance = -1;
+		for (int i = 0; i <= length; i++) {
+			final int cell = first + i * step;
+			final boolean open = i < length && map.isTraversable(cell) && map.isTraversable(cell + across);
+			if (open && entrance < 0) {
+				entrance = i;
+			} else if (!open && entrance >= 0) {
+				final int end = i - 1;
+				if (end - entrance + 1 < LONG_ENTRANCE) {
+					addTransition(border, first + (entrance + end) / 2 * step, across, clusterA, clusterB);
+				} else {
+					addTransition(border, first + entrance * step, across, clusterA, clusterB);
+					addTransition(border, first + end * step, across, clusterA, clusterB);
+				}
+				entrance = -1;
+			}
+		}
+	}
+
+	private void addTransition(int border, int cell, int across, int clusterA, int clusterB) {
+		final int a = allocateNode(cell, clusterA), b = allocateNode(cell + across, clusterB);
+		nodePartner[a] = b;
+		nodePartner[b] = a;
+		if (borderNodeCounts[border] + 2 > borderNodes[border].length) {
+			borderNodes[border] = Arrays.copyOf(borderNodes[border], borderNodes[border].length * 2);
+		}
+		borderNodes[border][borderNodeCounts[border]++] = a;
+		borderNodes[border][borderNodeCounts[border]++] = b;
+	}
+
+	/** Connects the nodes of given cluster by the costs of the local paths between them. */
+	private void buildEdges(int cluster) {
+		final int count = collectNodes(cluster);
+		final boolean open = isOpen(cluster);
+		for (int i = 0; i < count; i++) {
+			final int node = clusterNodes[i];
+			edgeCounts[node] = 0;
+			if (open) {
+				// nothing in the way, e.g. a cluster not seen yet
+				for (int j = 0; j < count; j++) {
+					final int other = clusterNodes[j];
+					if (other != node) addEdge(node, other, heuristic(nodeCell[node], nodeCell[other]));
+				}
+				continue;
+			}
+			searchLocal(nodeCell[node], cluster, Grid.NONE);
+			for (int j = 0; j < count; j++) {
+				final int other = clusterNodes[j];
+				if (other != node && cellOpened[nodeCell[other]] == cellSearch) {
+					addEdge(node, other, cellCost[nodeCell[other]]);
+				}
+			}
+		}
+	}
+
+	/** Returns <tt>true</tt> IFF all the cells of given cluster are traversable. */
+	private boolean isOpen(int cluster) {
+		final int left = (cluster % clustersX) * clusterSize, top = (cluster / clustersX) * clusterSize;
+		final int right = Math.min(left + clusterSize, width), bottom = Math.min(top + clusterSize, height);
+		for (int y = top; y < bottom; y++) {
+			for (int x = left; x < right; x++) {
+				if (!map.isTraversable(y * width + x)) return false;
+			}
+		}
+		return true;
+	}
+
+	private void addEdge(int node, int target, int cost) {
+		final int count = edgeCounts[node];
+		if (count == edgeTargets[node].length) {
+			edgeTargets[node] = Arrays.copyOf(edgeTargets[node], Math.max(4, count * 2));
+			edgeCosts[node] = Arrays.copyOf(edgeCosts[node], Math.max(4, count * 2));
+		}
+		edgeTargets[node][count] = target;
+		edgeCosts[node][count] = cost;
+		edgeCounts[node] = count + 1;
+	}
+
+	/** Collects the transition nodes of given cluster into {@link #clusterNodes}, returns their number. */
+	private int collectNodes(int cluster) {
+		final int cx = cluster % clustersX, cy = cluster / clustersX;
+		int count = 0;
+		if (cx > 0) count = collectNodes(cluster, cy * (clustersX - 1) + cx - 1, count);
+		if (cx < clustersX - 1) count = collectNodes(cluster, cy * (clustersX - 1) + cx, count);
+		if (cy > 0) count = collectNodes(cluster, verticalBorders + (cy - 1) * clustersX + cx, count);
+		if (cy < clustersY - 1) count = collectNodes(cluster, verticalBorders + cy * clustersX + cx, count);
+		return count;
+	}
+
+	private int collectNodes(int cluster, int border, int count) {
+		for (int i = 0; i < borderNodeCounts[border]; i++) {
+			final int node = borderNodes[border][i];
+			if (nodeCluster[node] != cluster) continue;
+			if (count == clusterNodes.length) {
+				clusterNodes = Arrays.copyOf(clusterNodes, count * 2);
+			}
+			clusterNodes[count++] = node;
+		}
+		return count;
+	}
+
+	/** Searches the abstract graph from the start to the goal node, returns <tt>true</tt> IFF a path has been found. */
+	private boolean searchAbstract(int startNode, int goalNode) {
+		final int from = nodeCell[startNode], to = nodeCell[goalNode];
+		final int startCluster = clusterOf(from), goalCluster = clusterOf(to);
+
+		// local costs from the start and to the goal
+		searchLocal(from, startCluster, Grid.NONE);
+		final int direct = (startCluster == goalCluster && cellOpened[to] == cellSearch) ? cellCost[to] : INFINITY;
+		final int startCount = collectNodes(startCluster);
+		startNodes = copy(clusterNodes, startCount, startNodes);
+		for (int i = 0; i < startCount; i++) {
+			final int cell = nodeCell[startNodes[i]];
+			nodeFromStart[startNodes[i]] = (cellOpened[cell] == cellSearch) ? cellCost[cell] : INFINITY;
+		}
+		searchLocal(to, goalCluster, Grid.NONE);
+		final int goalCount = collectNodes(goalCluster);
+		goalNodes = copy(clusterNodes, goalCount, goalNodes);
+		for (int i = 0; i < goalCount; i++) {
+			final int cell = nodeCell[goalNodes[i]];
+			nodeToGoal[goalNodes[i]] = (cellOpened[cell] == cellSearch) ? cellCost[cell] : INFINITY;
+		}
+
+		if (++nodeSearch == Integer.MAX_VALUE) {
+			Arrays.fill(nodeOpened, 0);
+			Arrays.fill(nodeClosed, 0);
+			nodeSearch = 1;
+		}
+		heapSize = 0;
+		nodeOpened[startNode] = nodeSearch;
+		nodeCost[startNode] = 0;
+		nodeParent[startNode] = -1;
+		push(heuristic(from, to), startNode);
+		while (heapSize > 0) {
+			final int node = (int) pop();
+			if (nodeClosed[node] == nodeSearch) continue;
+			nodeClosed[node] = nodeSearch;
+			expanded++;
+			if (node == goalNode) return true;
+
+			if (node == startNode) {
+				for (int i = 0; i < startCount; i++) {
+					relaxNode(node, startNodes[i], nodeFromStart[startNodes[i]], to);
+				}
+				relaxNode(node, goalNode, direct, to);
+				continue;
+			}
+			relaxNode(node, nodePartner[node], AbstractPathPlanner.STRAIGHT, to);
+			for (int i = 0; i < edgeCounts[node]; i++) {
+				relaxNode(node, edgeTargets[node][i], edgeCosts[node][i], to);
+			}
+			if (nodeCluster[node] == goalCluster) {
+				relaxNode(node, goalNode, nodeToGoal[node], to);
+			}
+		}
+		return false;
+	}
+
+	private void relaxNode(int node, int next, int moveCost, int goalCell) {
+		if (moveCost >= INFINITY || nodeClosed[next] == nodeSearch) return;
+		final int cost = nodeCost[node] + moveCost;
+		if (nodeOpened[next] != nodeSearch || cost < nodeCost[next]) {
+			nodeOpened[next] = nodeSearch;
+			nodeCost[next] = cost;
+			nodeParent[next] = node;
+			push(cost + heuristic(nodeCell[next], goalCell), next);
+		}
+	}
+
+	/**
+	 * Refines the abstract path into the cells of the route. The cells shared by a team change while the graph is searched, so a local
+	 * path the graph knows may be cut already, the change is passed to the graph later.
+	 *
+	 * @return <tt>true</tt> IFF the path has been refined, <tt>false</tt> if a local path has been cut
+	 */
+	private boolean refine(int startNode, int goalNode) {
+		int count = 0;
+		for (int node = goalNode; node != -1; node = nodeParent[node]) {
+			if (count == abstractPath.length) {
+				abstractPath = Arrays.copyOf(abstractPath, count * 2);
+			}
+			abstractPath[count++] = node;
+		}
+
+		routeLength = 0;
+		int cell = nodeCell[startNode];
+		for (int i = count - 2; i >= 0; i--) {
+			final int node = abstractPath[i], previous = abstractPath[i + 1];
+			final int next = nodeCell[node];
+			if (next == cell) continue;
+			if (nodePartner[previous] == node && previous != startNode) {
+				appendCell(next);
+			} else {
+				searchLocal(cell, clusterOf(cell), next);
+				if (cellOpened[next] != cellSearch) return false;
+				int length = 0;
+				for (int c = next; c != cell; c = cellParent[c]) {
+					segment[length++] = c;
+				}
+				while (length > 0) {
+					appendCell(segment[--length]);
+				}
+			}
+			cell = next;
+		}
+		return true;
+	}
+
+	private void appendCell(int cell) {
+		if (routeLength == route.length) {
+			route = Arrays.copyOf(route, routeLength * 2);
+		}
+		route[routeLength++] = cell;
+	}
+
+	/**
+	 * Searches the cells of one cluster from given cell. Without a target it finds the costs of all the reachable cells of the
+	 * cluster, with a target it stops when the target is reached.
+	 */
+	private void searchLocal(int source, int cluster, int target) {
+		if (++cellSearch == Integer.MAX_VALUE) {
+			Arrays.fill(cellOpened, 0);
+			cellSearch = 1;
+		}
+		final int left = (cluster % clustersX) * clusterSize, top = (cluster / clustersX) * clusterSize;
+		final int right = Math.min(left + clusterSize, width), bottom = Math.min(top + clusterSize, height);
+
+		heapSize = 0;
+		cellOpened[source] = cellSearch;
+		cellCost[source] = 0;
+		cellParent[source] = Grid.NONE;
+		push((target == Grid.NONE) ? 0 : heuristic(source, target), source);
+		while (heapSize > 0) {
+			final long entry = pop();
+			final int cell = (int) entry;
+			final int estimate = (target == Grid.NONE) ? 0 : heuristic(cell, target);
+			if ((int) (entry >>> 32) != cellCost[cell] + estimate) continue;
+			expanded++;
+			if (cell == target) return;
+
+			final int x = cell % width, y = cell / width;
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dx == 0 && dy == 0) continue;
+					final int nx = x + dx, ny = y + dy;
+					if (nx < left || ny < top || nx >= right || ny >= bottom) continue;
+					final int next = cell + dy * width + dx;
+					if (!map.isTraversable(next)) continue;
+					final int moveCost;
+					if (dx == 0 || dy == 0) {
+						moveCost = AbstractPathPlanner.STRAIGHT;
+					} else if (map.isTraversable(cell + dx) && map.isTraversable(cell + dy * width)) {
+						moveCost = AbstractPathPlanner.DIAGONAL;
+					} else {
+						continue;
+					}
+					final int cost = cellCost[cell] + moveCost;
+					if (cellOpened[next] != cellSearch || cost < cellCost[next]) {
+						cellOpened[next] = cellSearch;
+						cellCost[next] = cost;
+						cellParent[next] = cell;
+						push(cost + ((target == Grid.NONE) ? 0 : heuristic(next, target)), next);
+					}
+				}
+			}
+		}
+	}
+
+	private int clusterOf(int cell) {
+		return (cell / width / clusterSize) * clustersX + (cell % width) / clusterSize;
+	}
+
+	/** Returns the octile distance between given cells. */
+	private int heuristic(int from, int to) {
+		final int dx = Math.abs(from % width - to % width), dy = Math.abs(from / width - to / width);
+		return AbstractPathPlanner.STRAIGHT * Math.max(dx, dy)
+				+ (AbstractPathPlanner.DIAGONAL - AbstractPathPlanner.STRAIGHT) * Math.min(dx, dy);
+	}
+
+	private int allocateNode(int cell, int cluster) {
+		final int node;
+		if (freeCount > 0) {
+			node = freeNodes[--freeCount];
+		} else {
+			if (nodeCount == nodeCell.length) {
+				allocateNodes(nodeCount * 2);
+			}
+			node = nodeCount++;
+		}
+		nodeCell[node] = cell;
+		nodeCluster[node] = cluster;
+		nodePartner[node] = node;
+		edgeCounts[node] = 0;
+		return node;
+	}
+
+	private void releaseNode(int node) {
+		nodeCell[node] = Grid.NONE;
+		nodeCluster[node] = -1;
+		edgeCounts[node] = 0;
+		if (freeCount == freeNodes.length) {
+			freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+		}
+		freeNodes[freeCount++] = node;
+	}
+
+	/** Grows the arrays of the nodes to given capacity. */
+	private void allocateNodes(int capacity) {
+		final int previous = (nodeCell == null) ? 0 : nodeCell.length;
+		nodeCell = grow(nodeCell, capacity);
+		nodeCluster = grow(nodeCluster, capacity);
+		nodePartner = grow(nodePartner, capacity);
+		edgeCounts = grow(edgeCounts, capacity);
+		nodeCost = grow(nodeCost, capacity);
+		nodeParent = grow(nodeParent, capacity);
+		nodeOpened = grow(nodeOpened, capacity);
+		nodeClosed = grow(nodeClosed, capacity);
+		nodeFromStart = grow(nodeFromStart, capacity);
+		nodeToGoal = grow(nodeToGoal, capacity);
+		edgeTargets = (edgeTargets == null) ? new int[capacity][] : Arrays.copyOf(edgeTargets, capacity);
+		edgeCosts = (edgeCosts == null) ? new int[capacity][] : Arrays.copyOf(edgeCosts, capacity);
+		for (int i = previous; i < capacity; i++) {
+			edgeTargets[i] = new int[0];
+			edgeCosts[i] = new int[0];
+		}
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		return (array == null) ? new int[capacity] : Arrays.copyOf(array, capacity);
+	}
+
+	private static int[] copy(int[] source, int count, int[] target) {
+		if (target.length < count) {
+			target = new int[source.length];
+		}
+		System.arraycopy(source, 0, target, 0, count);
+		return target;
+	}
+
+	private void push(int priority, int value) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		}
+		final long entry = ((long) priority << 32) | value;
+		int i = heapSize++;
+		while (i > 0) {
+			final int up = (i - 1) >>> 1;
+			if (heap[up] <= entry) break;
+			heap[i] = heap[up];
+			i = up;
+		}
+		heap[i] = entry;
+	}
+
+	private long pop() {
+		final long top = heap[0];
+		final long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+}
@@ -0,0 +1,376 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Incremental path planner (D* Lite). It keeps the search state of each of the last few goals. The search runs backwards from the goal,
+ * so when the agent moves or the map changes, only the cells affected by the change are repaired instead of searching again: the
+ * planner listens to the traversability changes of the map and the replanning cost follows the number of the changed cells.
+ * <p/>
+ * The paths have the same cost as those of the {@link AStarPlanner}.
+ */
+public class DStarLitePlanner implements PathPlanner, GameMap.CellListener {
+
+	/** Cost of the unreachable cells. */
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	private final GameMap map;
+	private final Grid grid;
+	private final int width;
+
+	/** Search states of the goals, the least recently used one is replaced. */
+	private final Search[] searches;
+	private int searchCount;
+	private long useCounter;
+
+	/** Cells of the last path. */
+	private final int[] path;
+	private int pathLength;
+	private int start, expanded;
+
+	/** Constructor of the DStarLitePlanner class keeping the states of 4 goals. */
+	public DStarLitePlanner(GameMap map) {
+		this(map, 4);
+	}
+
+	/**
+	 * Constructor of the DStarLitePlanner class, the planner registers itself as a listener of the map.
+	 *
+	 * @param map      the map
+	 * @param maxGoals number of the goals to keep the search state for
+	 */
+	public DStarLitePlanner(GameMap map, int maxGoals) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.width = grid.getWidth();
+		this.searches = new Search[Math.max(1, maxGoals)];
+		this.path = new int[grid.size()];
+		this.pathLength = -1;
+		map.addCellListener(this);
+	}
+
+	@Override
+	public int plan(int from, int to) {
+		start = from;
+		expanded = 0;
+		pathLength = -1;
+		if (from == to) {
+			pathLength = 0;
+			return pathLength;
+		}
+		if (!map.isTraversable(to)) return -1;
+
+		final Search search = getSearch(to);
+		search.update(from);
+		pathLength = search.extractPath(from);
+		return pathLength;
+	}
+
+	@Override
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	@Override
+	public int getPathCell(int step) {
+		return path[step];
+	}
+
+	@Override
+	public Action getNextAction() {
+		return (pathLength > 0) ? grid.getAction(start, path[0]) : Action.SKIP;
+	}
+
+	/** Returns the number of the cells expanded by the last planning, including the repair of the changes. */
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public void traversabilityChanged(int cell) {
+		for (int i = 0; i < searchCount; i++) {
+			searches[i].cellChanged(cell);
+		}
+	}
+
+	@Override
+	public void mapCleared() {
+		for (int i = 0; i < searchCount; i++) {
+			searches[i].initialized = false;
+		}
+	}
+
+	/** Returns the search state of given goal, it replaces the least recently used one when there is none. */
+	private Search getSearch(int goal) {
+		Search search = null;
+		for (int i = 0; i < searchCount; i++) {
+			if (searches[i].goal == goal) {
+				search = searches[i];
+				break;
+			}
+		}
+		if (search == null) {
+			if (searchCount < searches.length) {
+				search = new Search();
+				searches[searchCount++] = search;
+			} else {
+				search = searches[0];
+				for (int i = 1; i < searchCount; i++) {
+					if (searches[i].lastUsed < search.lastUsed) search = searches[i];
+				}
+			}
+			search.goal = goal;
+			search.initialized = false;
+		}
+		search.lastUsed = ++useCounter;
+		return search;
+	}
+
+	/** Returns the octile distance between given cells. */
+	private int heuristic(int from, int to) {
+		final int dx = Math.abs(from % width - to % width), dy = Math.abs(from / width - to / width);
+		return AbstractPathPlanner.STRAIGHT * Math.max(dx, dy)
+				+ (AbstractPathPlanner.DIAGONAL - AbstractPathPlanner.STRAIGHT) * Math.min(dx, dy);
+	}
+
+	/** Returns the cost of the move between given neighbouring cells, {@link #INFINITY} if the move is not possible. */
+	private int cost(int from, int to) {
+		if (!map.isTraversable(from) || !map.isTraversable(to)) return INFINITY;
+		final int dx = to % width - from % width, dy = to / width - from / width;
+		if (dx == 0 || dy == 0) return AbstractPathPlanner.STRAIGHT;
+		if (!map.isTraversable(from + dx) || !map.isTraversable(from + dy * width)) return INFINITY;
+		return AbstractPathPlanner.DIAGONAL;
+	}
+
+	/** Search state of one goal. */
+	private final class Search {
+
+		int goal;
+		boolean initialized;
+		long lastUsed;
+
+		/** Cost-to-goal estimates and their one-step lookahead values. */
+		private final int[] g, rhs;
+		/** Indexed binary heap of the inconsistent cells. */
+		private final int[] heapCells, heapIndex;
+		private final long[] heapKeys;
+		private int heapSize;
+
+		private int km, lastStart, current;
+
+		/** Cells whose traversability has changed since the last planning. */
+		private final int[] pending;
+		private final boolean[] isPending;
+		private int pendingCount;
+
+		/** Buffers of the neighbouring cells, one per nesting level. */
+		private final int[] neighbors = new int[8], around = new int[8], candidates = new int[8];
+
+		Search() {
+			final int size = grid.size();
+			g = new int[size];
+			rhs = new int[size];
+			heapCells = new int[size];
+			heapIndex = new int[size];
+			heapKeys = new long[size];
+			pending = new int[size];
+			isPending = new boolean[size];
+		}
+
+		/** Records a changed cell to be repaired by the next planning. */
+		void cellChanged(int cell) {
+			if (!initialized || isPending[cell]) return;
+			isPending[cell] = true;
+			pending[pendingCount++] = cell;
+		}
+
+		/** Brings the search up to date for given start cell. */
+		void update(int from) {
+			current = from;
+			if (!initialized) {
+				Arrays.fill(g, INFINITY);
+				Arrays.fill(rhs, INFINITY);
+				Arrays.fill(heapIndex, -1);
+				heapSize = 0;
+				km = 0;
+				for (int i = 0; i < pendingCount; i++) {
+					isPending[pending[i]] = false;
+				}
+				pendingCount = 0;
+				rhs[goal] = 0;
+				heapInsert(goal, key(goal));
+				initialized = true;
+			} else {
+				km += heuristic(lastStart, from);
+				for (int i = 0; i < pendingCount; i++) {
+					final int cell = pending[i];
+					isPending[cell] = false;
+					updateVertex(cell);
+					final int count = grid.neighbors(cell, around);
+					for (int j = 0; j < count; j++) {
+						updateVertex(around[j]);
+					}
+				}
+				pendingCount = 0;
+			}
+			lastStart = from;
+			computeShortestPath();
+		}
+
+		/** Writes the path from given cell into the planner, returns its length or -1 if there is none. */
+		int extractPath(int from) {
+			if (g[from] >= INFINITY) return -1;
+			int length = 0;
+			int cell = from;
+			while (cell != goal) {
+				if (length == path.length) return -1;
+				final int count = grid.neighbors(cell, candidates);
+				int best = Grid.NONE;
+				long bestCost = INFINITY;
+				for (int i = 0; i < count; i++) {
+					final int next = candidates[i];
+					final long nextCost = (long) cost(cell, next) + g[next];
+					if (nextCost < bestCost) {
+						bestCost = nextCost;
+						best = next;
+					}
+				}
+				if (best == Grid.NONE) return -1;
+				path[length++] = best;
+				cell = best;
+			}
+			return length;
+		}
+
+		private long key(int cell) {
+			final int k2 = Math.min(g[cell], rhs[cell]);
+			final long k1 = (long) k2 + heuristic(current, cell) + km;
+			return (k1 << 32) | k2;
+		}
+
+		private void updateVertex(int cell) {
+			if (cell != goal) {
+				int best = INFINITY;
+				if (map.isTraversable(cell)) {
+					final int count = grid.neighbors(cell, neighbors);
+					for (int i = 0; i < count; i++) {
+						final int next = neighbors[i];
+						if (g[next] >= INFINITY) continue;
+						final int moveCost = cost(cell, next);
+						if (moveCost < INFINITY) {
+							best = Math.min(best, moveCost + g[next]);
+						}
+					}
+				}
+				rhs[cell] = best;
+			}
+			if (g[cell] != rhs[cell]) {
+				if (heapIndex[cell] >= 0) {
+					heapUpdate(cell, key(cell));
+				} else {
+					heapInsert(cell, key(cell));
+				}
+			} else if (heapIndex[cell] >= 0) {
+				heapRemove(cell);
+			}
+		}
+
+		private void computeShortestPath() {
+			while (heapSize > 0 && (heapKeys[0] < key(current) || rhs[current] != g[current])) {
+				final int cell = heapCells[0];
+				final long oldKey = heapKeys[0];
+				final long newKey = key(cell);
+				expanded++;
+				if (oldKey < newKey) {
+					heapUpdate(cell, newKey);
+				} else if (g[cell] > rhs[cell]) {
+					g[cell] = rhs[cell];
+					heapRemove(cell);
+					final int count = grid.neighbors(cell, around);
+					for (int i = 0; i < count; i++) {
+						updateVertex(around[i]);
+					}
+				} else {
+					g[cell] = INFINITY;
+					updateVertex(cell);
+					final int count = grid.neighbors(cell, around);
+					for (int i = 0; i < count; i++) {
+						updateVertex(around[i]);
+					}
+				}
+			}
+		}
+
+		private void heapInsert(int cell, long key) {
+			final int i = heapSize++;
+			heapCells[i] = cell;
+			heapKeys[i] = key;
+			heapIndex[cell] = i;
+			siftUp(i);
+		}
+
+		private void heapUpdate(int cell, long key) {
+			final int i = heapIndex[cell];
+			final long oldKey = heapKeys[i];
+			heapKeys[i] = key;
+			if (key < oldKey) {
+				siftUp(i);
+			} else {
+				siftDown(i);
+			}
+		}
+
+		private void heapRemove(int cell) {
+			final int i = heapIndex[cell];
+			heapIndex[cell] = -1;
+			final int last = --heapSize;
+			if (i == last) return;
+			final int moved = heapCells[last];
+			heapCells[i] = moved;
+			heapKeys[i] = heapKeys[last];
+			heapIndex[moved] = i;
+			siftUp(i);
+			siftDown(heapIndex[moved]);
+		}
+
+		private void siftUp(int i) {
+			final int cell = heapCells[i];
+			final long key = heapKeys[i];
+			while (i > 0) {
+				final int up = (i - 1) >>> 1;
+				if (heapKeys[up] <= key) break;
+				move(up, i);
+				i = up;
+			}
+			heapCells[i] = cell;
+			heapKeys[i] = key;
+			heapIndex[cell] = i;
+		}
+
+		private void siftDown(int i) {
+			final int cell = heapCells[i];
+			final long key = heapKeys[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) break;
+				if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+				if (heapKeys[child] >= key) break;
+				move(child, i);
+				i = child;
+			}
+			heapCells[i] = cell;
+			heapKeys[i] = key;
+			heapIndex[cell] = i;
+		}
+
+		private void move(int from, int to) {
+			heapCells[to] = heapCells[from];
+			heapKeys[to] = heapKeys[from];
+			heapIndex[heapCells[to]] = to;
+		}
+	}
+}
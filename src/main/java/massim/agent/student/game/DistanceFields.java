@@ -0,0 +1,354 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Distance fields (flow fields) of the common goals, e.g. the checkpoints or the fence switches. For each goal it keeps the path cost
+ * of every cell to the goal over the current knowledge of the map, so the next move of any agent heading to the goal is a lookup of
+ * its neighbouring cells. The costs and the moves are the same as those of the {@link PathPlanner}s.
+ * <p/>
+ * The service listens to the traversability changes of the map, the fields are repaired on the next query and only the cells whose
+ * cost depends on the changed cells are recomputed. The agents of a team sharing a {@link TeamWorldModel} use one instance
+ * ({@link TeamMapStore#getDistanceFields()}), so the methods are synchronized.
+ */
+public class DistanceFields implements GameMap.CellListener {
+
+	/** Cost of the unreachable cells. */
+	public static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	private final GameMap map;
+	private final Grid grid;
+	private final int width;
+
+	/** Fields of the goals, the least recently used one is replaced. */
+	private final Field[] fields;
+	private int fieldCount;
+	private long useCounter;
+
+	/** Binary heap of the cells to settle, the cost in the upper half and the cell in the lower half of the entry. */
+	private long[] heap = new long[64];
+	private int heapSize;
+	/** Stack of the cells to check for the lost support. */
+	private int[] stack = new int[64];
+	/** Cells which lost their cost during the repair. */
+	private final int[] invalidated;
+	/** Buffers of the neighbouring cells, one per nesting level. */
+	private final int[] neighbors = new int[8], around = new int[8];
+
+	private int expanded;
+
+	/** Constructor of the DistanceFields class keeping the fields of 8 goals. */
+	public DistanceFields(GameMap map) {
+		this(map, 8);
+	}
+
+	/**
+	 * Constructor of the DistanceFields class, the service registers itself as a listener of the map.
+	 *
+	 * @param map       the map
+	 * @param maxFields number of the goals to keep the field for
+	 */
+	public DistanceFields(GameMap map, int maxFields) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.width = grid.getWidth();
+		this.fields = new Field[Math.max(1, maxFields)];
+		this.invalidated = new int[grid.size()];
+		map.addCellListener(this);
+	}
+
+	/** Returns the path cost from given cell to given goal, {@link #INFINITY} if the goal cannot be reached. */
+	public synchronized int getDistance(int cell, int goal) {
+		return getField(goal).cost[cell];
+	}
+
+	/**
+	 * Returns the neighbouring cell of given cell on a shortest path to given goal.
+	 *
+	 * @return the next cell, {@link Grid#NONE} if the goal cannot be reached or the cell is the goal
+	 */
+	public synchronized int getNextCell(int cell, int goal) {
+		return nextCell(getField(goal).cost, cell, false);
+	}
+
+	/**
+	 * Returns the move from given cell towards given goal. It picks the enterable neighbouring cell closest to the goal, so it steps
+	 * aside on an equally short path when the best cell is occupied.
+	 *
+	 * @return the move, skip if the goal cannot be reached or no enterable cell is closer to the goal
+	 */
+	public synchronized Action getNextAction(int cell, int goal) {
+		final int next = nextCell(getField(goal).cost, cell, true);
+		return (next != Grid.NONE) ? grid.getAction(cell, next) : Action.SKIP;
+	}
+
+	/** Returns the number of the cells settled by the last repair or computation of a field. */
+	public synchronized int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public synchronized void traversabilityChanged(int cell) {
+		for (int i = 0; i < fieldCount; i++) {
+			fields[i].cellChanged(cell);
+		}
+	}
+
+	@Override
+	public synchronized void mapCleared() {
+		for (int i = 0; i < fieldCount; i++) {
+			fields[i].valid = false;
+		}
+	}
+
+	/** Returns the up to date field of given goal, it replaces the least recently used one when there is none. */
+	private Field getField(int goal) {
+		Field field = null;
+		for (int i = 0; i < fieldCount; i++) {
+			if (fields[i].goal == goal) {
+				field = fields[i];
+				break;
+			}
+		}
+		if (field == null) {
+			if (fieldCount < fields.length) {
+				field = new Field(grid.size());
+				fields[fieldCount++] = field;
+			} else {
+				field = fields[0];
+				for (int i = 1; i < fieldCount; i++) {
+					if (fields[i].lastUsed < field.lastUsed) field = fields[i];
+				}
+			}
+			field.goal = goal;
+			field.valid = false;
+		}
+		field.lastUsed = ++useCounter;
+		expanded = 0;
+		if (!field.valid) {
+			compute(field);
+		} else if (field.pendingCount > 0) {
+			repair(field);
+		}
+		return field;
+	}
+
+	/** Computes the whole field of its goal. */
+	private void compute(Field field) {
+		final int[] cost = field.cost;
+		Arrays.fill(cost, INFINITY);
+		field.clearPending();
+		field.valid = true;
+		if (!map.isTraversable(field.goal)) return;
+		cost[field.goal] = 0;
+		heapSize = 0;
+		push(0, field.goal);
+		settle(cost);
+	}
+
+	/**
+	 * Repairs the field after the traversability changes. The cells which lost the support of their cost (the neighbour their shortest
+	 * path continues to) are invalidated first, then they and the cells around the changes take the best cost of their neighbours and
+	 * the lowered costs are propagated.
+	 */
+	private void repair(Field field) {
+		final int[] cost = field.cost;
+		final int goal = field.goal;
+		for (int i = 0; i < field.pendingCount; i++) {
+			if (field.pending[i] == goal) {
+				compute(field);
+				return;
+			}
+		}
+
+		// invalidate the cells without support
+		int stackSize = 0, invalidatedCount = 0;
+		for (int i = 0; i < field.pendingCount; i++) {
+			final int cell = field.pending[i];
+			stack = push(stack, stackSize++, cell);
+			final int count = grid.neighbors(cell, neighbors);
+			for (int j = 0; j < count; j++) {
+				stack = push(stack, stackSize++, neighbors[j]);
+			}
+		}
+		while (stackSize > 0) {
+			final int cell = stack[--stackSize];
+			if (cell == goal || cost[cell] >= INFINITY || isSupported(cost, cell)) continue;
+			cost[cell] = INFINITY;
+			invalidated[invalidatedCount++] = cell;
+			final int count = grid.neighbors(cell, neighbors);
+			for (int j = 0; j < count; j++) {
+				if (cost[neighbors[j]] < INFINITY) stack = push(stack, stackSize++, neighbors[j]);
+			}
+		}
+
+		// lower the invalidated cells and the cells around the changes to the best cost of their neighbours
+		heapSize = 0;
+		for (int i = 0; i < invalidatedCount; i++) {
+			lower(cost, invalidated[i]);
+		}
+		for (int i = 0; i < field.pendingCount; i++) {
+			final int cell = field.pending[i];
+			lower(cost, cell);
+			final int count = grid.neighbors(cell, around);
+			for (int j = 0; j < count; j++) {
+				lower(cost, around[j]);
+			}
+		}
+		field.clearPending();
+		settle(cost);
+	}
+
+	/** Returns <tt>true</tt> IFF the cost of given cell is still reached through one of its neighbours. */
+	private boolean isSupported(int[] cost, int cell) {
+		if (!map.isTraversable(cell)) return false;
+		final int count = grid.neighbors(cell, around);
+		for (int i = 0; i < count; i++) {
+			final int next = around[i];
+			if (cost[next] < cost[cell] && cost[next] + cost(cell, next) == cost[cell]) return true;
+		}
+		return false;
+	}
+
+	/** Lowers the cost of given cell to the best cost over its neighbours and queues it if it has changed. */
+	private void lower(int[] cost, int cell) {
+		if (!map.isTraversable(cell)) return;
+		int best = cost[cell];
+		final int count = grid.neighbors(cell, neighbors);
+		for (int i = 0; i < count; i++) {
+			final int next = neighbors[i];
+			if (cost[next] >= INFINITY) continue;
+			best = Math.min(best, cost[next] + cost(cell, next));
+		}
+		if (best < cost[cell]) {
+			cost[cell] = best;
+			push(best, cell);
+		}
+	}
+
+	/** Settles the queued cells and propagates their costs (Dijkstra). */
+	private void settle(int[] cost) {
+		while (heapSize > 0) {
+			final long entry = pop();
+			final int cell = (int) entry, cellCost = (int) (entry >>> 32);
+			if (cellCost != cost[cell]) continue;
+			expanded++;
+			final int count = grid.neighbors(cell, neighbors);
+			for (int i = 0; i < count; i++) {
+				final int next = neighbors[i];
+				final int moveCost = cost(cell, next);
+				if (moveCost >= INFINITY) continue;
+				if (cellCost + moveCost < cost[next]) {
+					cost[next] = cellCost + moveCost;
+					push(cost[next], next);
+				}
+			}
+		}
+	}
+
+	/** Returns the neighbour of given cell with the least cost to the goal, only the passable ones closer to the goal if requested. */
+	private int nextCell(int[] cost, int cell, boolean passable) {
+		if (cost[cell] == 0 || cost[cell] >= INFINITY) return Grid.NONE;
+		final int count = grid.neighbors(cell, neighbors);
+		int best = Grid.NONE;
+		int bestCost = INFINITY;
+		for (int i = 0; i < count; i++) {
+			final int next = neighbors[i];
+			if (cost[next] >= INFINITY) continue;
+			if (passable && (cost[next] >= cost[cell] || !map.getStore().isPassable(next))) continue;
+			final int moveCost = cost(cell, next);
+			if (moveCost < INFINITY && moveCost + cost[next] < bestCost) {
+				bestCost = moveCost + cost[next];
+				best = next;
+			}
+		}
+		return best;
+	}
+
+	/** Returns the cost of the move between given neighbouring cells, {@link #INFINITY} if the move is not possible. */
+	private int cost(int from, int to) {
+		if (!map.isTraversable(from) || !map.isTraversable(to)) return INFINITY;
+		final int dx = to % width - from % width, dy = to / width - from / width;
+		if (dx == 0 || dy == 0) return AbstractPathPlanner.STRAIGHT;
+		if (!map.isTraversable(from + dx) || !map.isTraversable(from + dy * width)) return INFINITY;
+		return AbstractPathPlanner.DIAGONAL;
+	}
+
+	private static int[] push(int[] stack, int size, int cell) {
+		if (size == stack.length) {
+			stack = Arrays.copyOf(stack, size * 2);
+		}
+		stack[size] = cell;
+		return stack;
+	}
+
+	private void push(int priority, int cell) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		}
+		final long entry = ((long) priority << 32) | cell;
+		int i = heapSize++;
+		while (i > 0) {
+			final int up = (i - 1) >>> 1;
+			if (heap[up] <= entry) break;
+			heap[i] = heap[up];
+			i = up;
+		}
+		heap[i] = entry;
+	}
+
+	private long pop() {
+		final long top = heap[0];
+		final long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+
+	/** Distance field of one goal. */
+	private static final class Field {
+
+		int goal;
+		boolean valid;
+		long lastUsed;
+
+		/** Path cost of the cells to the goal. */
+		final int[] cost;
+
+		/** Cells whose traversability has changed since the last query. */
+		final int[] pending;
+		final boolean[] isPending;
+		int pendingCount;
+
+		Field(int size) {
+			cost = new int[size];
+			pending = new int[size];
+			isPending = new boolean[size];
+		}
+
+		/** Records a changed cell to be repaired by the next query. */
+		void cellChanged(int cell) {
+			if (!valid || isPending[cell]) return;
+			isPending[cell] = true;
+			pending[pendingCount++] = cell;
+		}
+
+		void clearPending() {
+			for (int i = 0; i < pendingCount; i++) {
+				isPending[pending[i]] = false;
+			}
+			pendingCount = 0;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package massim.agent.student.game;
 
 import massim.agent.Action;
+import massim.agent.Grid;
 import massim.agent.Position;
 
 import java.io.Serializable;
@@ -31,24 +32,51 @@ public class Fence implements Serializable {
 		return direction;
 	}
 
+	/** Returns the cell before the fence switch, the fence is opened from it. */
+	public int getCellBeforeSwitch(Grid grid) {
+		return grid.move(grid.index(switchPosition), Grid.next(Grid.next(direction)));
+	}
+
 	/** Returns the position after the fence switch. */
 	public Position getPositionAfterSwitch() {
 		return GameMap.move(switchPosition, direction);
 	}
 
+	/** Returns the cell after the fence switch. */
+	public int getCellAfterSwitch(Grid grid) {
+		return grid.move(grid.index(switchPosition), direction);
+	}
+
 	/** Returns the position behind the fence. */
 	public Position getPositionBehindFence() {
-		final int x = switchPosition.getX(), y = switchPosition.getY();
-		final Position inFence;
-		switch (direction) {
-			case NORTH: inFence = new Position(x + 2, y); break;
-			case EAST: inFence = new Position(x, y + 2); break;
-			case SOUTH: inFence = new Position(x - 2, y); break;
-			case WEST: inFence = new Position(x, y - 2); break;
-			default: inFence = switchPosition;
-		}
-		// position two steps beside switch and two steps behind fence
-		return GameMap.move(GameMap.move(inFence, direction), direction);
+		return new Position(getBehindFenceX(), getBehindFenceY());
+	}
+
+	/** Returns the cell behind the fence. */
+	public int getCellBehindFence(Grid grid) {
+		return grid.index(getBehindFenceX(), getBehindFenceY());
+	}
+
+	/** Coordinates two steps beside the switch and two steps behind the fence, the fence runs from the switch in its direction. */
+	private int getBehindFenceX() {
+		return switchPosition.getX() + getBesideX() + 2 * Grid.getDeltaX(direction);
+	}
+
+	private int getBehindFenceY() {
+		return switchPosition.getY() + getBesideY() + 2 * Grid.getDeltaY(direction);
+	}
+
+	/** Offset two steps beside the switch, clock-wise from the fence direction (none for the diagonal directions). */
+	private int getBesideX() {
+		return isStraight() ? 2 * Grid.getDeltaX(Grid.next(direction)) : 0;
+	}
+
+	private int getBesideY() {
+		return isStraight() ? 2 * Grid.getDeltaY(Grid.next(direction)) : 0;
+	}
+
+	private boolean isStraight() {
+		return direction == Action.NORTH || direction == Action.EAST || direction == Action.SOUTH || direction == Action.WEST;
 	}
 
 	@Override
@@ -0,0 +1,305 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Index of the fences recognized in the map. A fence is a straight line of fence cells running from its switch until an obstacle, it is
+ * recognized as soon as its switch and a fence cell next to it are known, no matter which agent has seen them, and its later seen cells
+ * are added to it. For every fence the index knows the direction it runs in, its known cells, whether it is open and when it has been
+ * opened and closed.
+ * <p/>
+ * The fence of a cell, i.e. the switch which has to be held to pass the cell, is a lookup. The agents of a team sharing a
+ * {@link TeamWorldModel} use one index ({@link TeamMapStore#getFenceIndex()}), so the methods are synchronized and a caller reading
+ * the fences by several calls holds the lock of the index meanwhile.
+ */
+public class FenceIndex implements GameMap.ContentListener {
+
+	/** Number of the state changes kept in the history of a fence. */
+	public static final int HISTORY = 16;
+
+	/** The straight moves, the fences run in them. */
+	private static final Action[] STRAIGHT = {Action.NORTH, Action.EAST, Action.SOUTH, Action.WEST};
+
+	private final GameMap map;
+	private final Grid grid;
+
+	/** Fence of the cells (switches and fence cells) plus one, 0 for the other cells. */
+	private final int[] fenceOf;
+	private Segment[] fences = new Segment[4];
+	private int fenceCount;
+	/** Step of the observations written next. */
+	private int step;
+
+	/** Constructor of the FenceIndex class, the index registers itself as a listener of the map. */
+	public FenceIndex(GameMap map) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.fenceOf = new int[grid.size()];
+		map.addContentListener(this);
+		rebuild();
+	}
+
+	/** Sets the step of the observations written next, the state changes of the fences are recorded with it. */
+	public synchronized void setStep(int step) {
+		this.step = step;
+	}
+
+	@Override
+	public synchronized void contentChanged(int cell) {
+		final char content = map.get(cell);
+		final int known = fenceOf[cell] - 1;
+		if (known >= 0) {
+			// a known cell of a fence, its state may have changed
+			if (content == GameMap.FENCE || content == GameMap.FENCE_OPEN) {
+				fences[known].refreshState(content == GameMap.FENCE_OPEN);
+			}
+			return;
+		}
+		if (content == GameMap.SWITCH) {
+			recognize(cell);
+		} else if (content == GameMap.FENCE || content == GameMap.FENCE_OPEN) {
+			// the switch is looked for along the fence cells, the fence runs from it
+			for (Action direction : STRAIGHT) {
+				int next = cell;
+				do {
+					next = grid.move(next, direction);
+				} while (next != Grid.NONE && fenceOf[next] == 0 && isFenceCell(next));
+				if (next != Grid.NONE && map.get(next) == GameMap.SWITCH) {
+					final int fence = (fenceOf[next] != 0) ? fenceOf[next] - 1 : recognize(next);
+					if (fenceOf[cell] != 0) return;
+					if (fence >= 0) {
+						fences[fence].extend();
+						if (fenceOf[cell] != 0) return;
+					}
+				} else if (next != Grid.NONE && fenceOf[next] != 0 && map.get(next) != GameMap.SWITCH) {
+					// a cell of a recognized fence on the same line
+					final Segment fence = fences[fenceOf[next] - 1];
+					if (fence.direction == Grid.next(Grid.next(direction))) {
+						fence.extend();
+						if (fenceOf[cell] != 0) return;
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void mapCleared() {
+		rebuild();
+	}
+
+	/** Returns the number of the recognized fences. */
+	public synchronized int getFenceCount() {
+		return fenceCount;
+	}
+
+	/**
+	 * Returns the fence given cell belongs to, a switch belongs to its fence.
+	 *
+	 * @return index of the fence, -1 if the cell is not a known cell of a fence
+	 */
+	public synchronized int getFence(int cell) {
+		return fenceOf[cell] - 1;
+	}
+
+	/** Returns the switch which has to be held to pass given cell, {@link Grid#NONE} if the cell is not a known fence cell. */
+	public synchronized int getGatingSwitch(int cell) {
+		final int fence = fenceOf[cell] - 1;
+		return (fence < 0 || fences[fence].switchCell == cell) ? Grid.NONE : fences[fence].switchCell;
+	}
+
+	/**
+	 * Returns the first switch which has to be held to follow the current path of given planner.
+	 *
+	 * @return the switch, {@link Grid#NONE} if the path leads through no known fence
+	 */
+	public synchronized int getGatingSwitch(PathPlanner planner) {
+		for (int i = 0; i < planner.getPathLength(); i++) {
+			final int gate = getGatingSwitch(planner.getPathCell(i));
+			if (gate != Grid.NONE) return gate;
+		}
+		return Grid.NONE;
+	}
+
+	/** Returns the switch cell of given fence. */
+	public synchronized int getSwitch(int fence) {
+		return fences[fence].switchCell;
+	}
+
+	/** Returns the direction given fence runs in from its switch, null if no fence cell next to the switch is known. */
+	public synchronized Action getDirection(int fence) {
+		return fences[fence].direction;
+	}
+
+	/** Returns the number of the known cells of given fence, they follow the switch without gaps. */
+	public synchronized int getLength(int fence) {
+		return fences[fence].length;
+	}
+
+	/** Returns the i-th cell of given fence counted from its switch. */
+	public synchronized int getCell(int fence, int i) {
+		return fences[fence].cells[i];
+	}
+
+	/** Returns <tt>true</tt> IFF the last cell of given fence is followed by an obstacle, i.e. the whole fence is known. */
+	public synchronized boolean isComplete(int fence) {
+		final Segment segment = fences[fence];
+		if (segment.direction == null) return false;
+		final int next = grid.move(segment.length > 0 ? segment.cells[segment.length - 1] : segment.switchCell, segment.direction);
+		return next == Grid.NONE || map.get(next) == GameMap.WALL;
+	}
+
+	/** Returns <tt>true</tt> IFF given fence has been seen open last time. */
+	public synchronized boolean isOpen(int fence) {
+		return fences[fence].open;
+	}
+
+	/** Returns the number of the recorded state changes of given fence, at most {@link #HISTORY} latest ones are kept. */
+	public synchronized int getStateChanges(int fence) {
+		return fences[fence].changes;
+	}
+
+	/**
+	 * Returns the step of a state change of given fence.
+	 *
+	 * @param fence the fence
+	 * @param ago   0 for the latest change, less than {@link #HISTORY} and the number of the changes
+	 * @return the step, the states alternate and the latest one is {@link #isOpen(int)}
+	 */
+	public synchronized int getStateChangeStep(int fence, int ago) {
+		final Segment segment = fences[fence];
+		return segment.history[(segment.changes - 1 - ago) & (HISTORY - 1)];
+	}
+
+	/**
+	 * Returns the fence crossed from the cell before the switch, see {@link Fence}.
+	 *
+	 * @return the fence, null if its direction is not known yet
+	 */
+	public synchronized Fence toFence(int fence) {
+		final Segment segment = fences[fence];
+		if (segment.direction == null) return null;
+		return new Fence(grid.toPosition(segment.switchCell), Grid.next(Grid.next(Grid.next(segment.direction))));
+	}
+
+	/**
+	 * Returns the cell the leader waits at behind given fence: two steps behind the fence beside the second known fence cell, or the
+	 * closest known traversable cell there.
+	 *
+	 * @return the cell, {@link Grid#NONE} if the direction of the fence is not known or no such cell is known
+	 */
+	public synchronized int getCellBehind(int fence) {
+		final Segment segment = fences[fence];
+		if (segment.direction == null) return Grid.NONE;
+		final Action crossing = Grid.next(Grid.next(Grid.next(segment.direction)));
+		for (int i = Math.max(0, Math.min(1, segment.length - 1)); i < segment.length; i++) {
+			final int beside = grid.move(segment.cells[i], crossing);
+			final int behind = (beside == Grid.NONE) ? Grid.NONE : grid.move(beside, crossing);
+			if (behind != Grid.NONE && map.get(behind) != GameMap.UNKNOWN && map.isTraversable(behind)) return behind;
+			if (beside != Grid.NONE && map.get(beside) != GameMap.UNKNOWN && map.isTraversable(beside)) return beside;
+		}
+		return Grid.NONE;
+	}
+
+	/** Recognizes the fence of given switch cell. */
+	private int recognize(int switchCell) {
+		if (fenceOf[switchCell] != 0) return fenceOf[switchCell] - 1;
+		if (fenceCount == fences.length) {
+			fences = Arrays.copyOf(fences, fenceCount * 2);
+		}
+		final Segment segment = new Segment(switchCell);
+		fences[fenceCount++] = segment;
+		fenceOf[switchCell] = fenceCount;
+		segment.extend();
+		return fenceCount - 1;
+	}
+
+	/** Recognizes the fences of the whole map again. */
+	private void rebuild() {
+		for (int i = 0; i < fenceCount; i++) {
+			final Segment segment = fences[i];
+			fenceOf[segment.switchCell] = 0;
+			for (int j = 0; j < segment.length; j++) {
+				fenceOf[segment.cells[j]] = 0;
+			}
+			fences[i] = null;
+		}
+		fenceCount = 0;
+		for (int cell = 0; cell < grid.size(); cell++) {
+			if (map.get(cell) == GameMap.SWITCH) {
+				recognize(cell);
+			}
+		}
+	}
+
+	private boolean isFenceCell(int cell) {
+		final char content = map.get(cell);
+		return content == GameMap.FENCE || content == GameMap.FENCE_OPEN;
+	}
+
+	/** One fence, its switch and its known cells. */
+	private final class Segment {
+
+		final int switchCell;
+		/** Direction the fence runs in from the switch, null if not known yet. */
+		Action direction;
+		int[] cells = new int[8];
+		int length;
+
+		boolean open;
+		/** Steps of the state changes, a ring of {@link #HISTORY} entries. */
+		final int[] history = new int[HISTORY];
+		int changes;
+
+		Segment(int switchCell) {
+			this.switchCell = switchCell;
+		}
+
+		/** Adds the known fence cells following the last known one, the direction is found first. */
+		void extend() {
+			if (direction == null) {
+				for (Action move : STRAIGHT) {
+					final int next = grid.move(switchCell, move);
+					if (next != Grid.NONE && fenceOf[next] == 0 && isFenceCell(next)) {
+						direction = move;
+						break;
+					}
+				}
+				if (direction == null) return;
+			}
+			int next = grid.move(length > 0 ? cells[length - 1] : switchCell, direction);
+			while (next != Grid.NONE && fenceOf[next] == 0 && isFenceCell(next)) {
+				if (length == cells.length) {
+					cells = Arrays.copyOf(cells, length * 2);
+				}
+				cells[length++] = next;
+				fenceOf[next] = fenceOf[switchCell];
+				refreshState(map.get(next) == GameMap.FENCE_OPEN);
+				next = grid.move(next, direction);
+			}
+		}
+
+		/** Records the state of the fence seen in one of its cells. */
+		void refreshState(boolean open) {
+			if (open == this.open && (changes > 0 || !open)) return;
+			this.open = open;
+			history[changes & (HISTORY - 1)] = step;
+			changes++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		final StringBuilder sb = new StringBuilder("FenceIndex [");
+		for (int i = 0; i < fenceCount; i++) {
+			final Segment segment = fences[i];
+			if (i > 0) sb.append(", ");
+			sb.append(grid.toPosition(segment.switchCell)).append(' ').append(segment.direction).append(" length=").append(segment.length)
+					.append(segment.open ? " open" : " closed");
+		}
+		return sb.append(']').toString();
+	}
+}
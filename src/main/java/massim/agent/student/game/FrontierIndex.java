@@ -0,0 +1,247 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Index of the exploration frontier, the known traversable cells next to an unknown cell. The frontier cells are ordered by the
+ * information gain of a visit, the number of the unknown cells the agent would see from the cell, so the next target of the
+ * exploration is taken from a heap instead of walking a fixed route.
+ * <p/>
+ * The cells which have become known are collected as the map is refreshed (or the changes of the teammates are polled) and the frontier
+ * ones are queued on the next query. A queued cell
+ * carries an upper bound of its gain, the unknown cells of the blocks around it, the exact gain is counted only when the cell gets to
+ * the top of the heap and the cell is queued again if the gain has dropped below the next one (lazy greedy). The cells which stopped
+ * being the frontier are dropped as they get to the top. When the whole map has changed the index is rebuilt on the next query.
+ */
+public class FrontierIndex implements GameMap.ContentListener {
+
+	/** Largest gain kept in the heap entries, the higher ones are capped. */
+	private static final int MAX_GAIN = (1 << 11) - 1;
+	/** Number of the exact gains counted in one query at most. */
+	private static final int MAX_EVALUATIONS = 64;
+
+	private final GameMap map;
+	private final Grid grid;
+	private final int width, height, visibility;
+
+	/** Side of the blocks of the unknown cells counters, at least the visibility, so the blocks around a cell cover its view. */
+	private final int blockSize, blocksX, blocksY;
+	/** Number of the unknown cells of the blocks. */
+	private final int[] unknownInBlock;
+	/** Bits of the cells which are known. */
+	private final long[] known;
+	/** Whether the index has to be rebuilt from the whole map. */
+	private boolean rebuild;
+
+	/** Cells which have changed since the last query. */
+	private int[] pending = new int[64];
+	private int pendingSize;
+	/** Heap of the frontier cells, see {@link #push(int, int, int)}. */
+	private long[] heap = new long[64];
+	private int heapSize;
+	/** Stamp of the queued cells, the cells with an older stamp are not queued. */
+	private final int[] queued;
+	private int stamp;
+	/** Number of the queries, the cells queued later are preferred when the gains are the same. */
+	private int queries;
+
+	private final int[] neighbors = new int[8];
+	private int evaluations;
+
+	/**
+	 * Constructor of the FrontierIndex class, the index registers itself as a listener of the map.
+	 *
+	 * @param map        the map
+	 * @param visibility how far the agents see
+	 */
+	public FrontierIndex(GameMap map, int visibility) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.width = grid.getWidth();
+		this.height = grid.getHeight();
+		this.visibility = Math.max(0, visibility);
+		this.blockSize = Math.max(1, this.visibility);
+		this.blocksX = (width + blockSize - 1) / blockSize;
+		this.blocksY = (height + blockSize - 1) / blockSize;
+		this.unknownInBlock = new int[blocksX * blocksY];
+		this.known = new long[(grid.size() + 63) >>> 6];
+		this.queued = new int[grid.size()];
+		map.addContentListener(this);
+		mapCleared();
+	}
+
+	@Override
+	public void contentChanged(int cell) {
+		final boolean wasKnown = (known[cell >>> 6] & (1L << cell)) != 0, isKnown = map.get(cell) != GameMap.UNKNOWN;
+		if (wasKnown != isKnown) {
+			known[cell >>> 6] ^= 1L << cell;
+			unknownInBlock[blockOf(cell)] += isKnown ? -1 : 1;
+		}
+		if (isKnown) {
+			// e.g. an opened fence may become the frontier
+			if (pendingSize == pending.length) {
+				pending = Arrays.copyOf(pending, pendingSize * 2);
+			}
+			pending[pendingSize++] = cell;
+		}
+	}
+
+	@Override
+	public void mapCleared() {
+		rebuild = true;
+		pendingSize = 0;
+	}
+
+	/** Returns <tt>true</tt> IFF given cell is known, traversable and it has an unknown neighbouring cell. */
+	public boolean isFrontier(int cell) {
+		final char content = map.get(cell);
+		if (content == GameMap.UNKNOWN || !GameMap.isTraversable(content)) return false;
+		final int count = grid.neighbors(cell, neighbors);
+		for (int i = 0; i < count; i++) {
+			if (map.get(neighbors[i]) == GameMap.UNKNOWN) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the frontier cell with the highest information gain, the cell stays in the index until it stops being the frontier.
+	 *
+	 * @return the cell, {@link Grid#NONE} if the whole reachable map is known
+	 */
+	public int getBest() {
+		queries++;
+		if (rebuild) {
+			rebuild();
+		}
+		flushPending();
+		evaluations = 0;
+		while (heapSize > 0) {
+			final long top = heap[0];
+			final int cell = (int) top;
+			if (!isFrontier(cell)) {
+				pop();
+				queued[cell] = 0;
+				continue;
+			}
+			final int bound = MAX_GAIN - (int) (top >>> 52);
+			if (evaluations == MAX_EVALUATIONS) return cell;
+			final int gain = countGain(cell);
+			if (gain == bound) return cell;
+			pop();
+			push(gain, ~(int) (top >>> 32) & 0xfffff, cell);
+			if ((int) heap[0] == cell) return cell;
+		}
+		return Grid.NONE;
+	}
+
+	/** Returns the number of the unknown cells the agent would see from given cell. */
+	public int countGain(int cell) {
+		evaluations++;
+		final int x = grid.x(cell), y = grid.y(cell);
+		final int x0 = Math.max(0, x - visibility), x1 = Math.min(width - 1, x + visibility);
+		final int y0 = Math.max(0, y - visibility), y1 = Math.min(height - 1, y + visibility);
+		int gain = 0;
+		for (int cy = y0; cy <= y1; cy++) {
+			for (int c = cy * width + x0, end = cy * width + x1; c <= end; c++) {
+				if (map.get(c) == GameMap.UNKNOWN) gain++;
+			}
+		}
+		return Math.min(gain, MAX_GAIN);
+	}
+
+	/** Returns the number of the queued cells, including the ones which are not the frontier any more. */
+	public int size() {
+		return heapSize + pendingSize;
+	}
+
+	/** Counts the known cells of the whole map and queues the frontier ones. */
+	private void rebuild() {
+		rebuild = false;
+		for (int by = 0; by < blocksY; by++) {
+			final int rows = Math.min(blockSize, height - by * blockSize);
+			for (int bx = 0; bx < blocksX; bx++) {
+				unknownInBlock[by * blocksX + bx] = rows * Math.min(blockSize, width - bx * blockSize);
+			}
+		}
+		Arrays.fill(known, 0);
+		heapSize = 0;
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(queued, 0);
+			stamp = 1;
+		}
+		pendingSize = 0;
+		for (int cell = 0; cell < grid.size(); cell++) {
+			contentChanged(cell);
+		}
+	}
+
+	/** Queues the collected cells which are the frontier. */
+	private void flushPending() {
+		for (int i = 0; i < pendingSize; i++) {
+			final int cell = pending[i];
+			if (queued[cell] != stamp && isFrontier(cell)) {
+				queued[cell] = stamp;
+				push(estimateGain(cell), queries, cell);
+			}
+		}
+		pendingSize = 0;
+	}
+
+	/** Returns the upper bound of the gain of given cell, the unknown cells of the blocks around its block. */
+	private int estimateGain(int cell) {
+		final int bx = grid.x(cell) / blockSize, by = grid.y(cell) / blockSize;
+		int gain = 0;
+		for (int y = Math.max(0, by - 1); y <= Math.min(blocksY - 1, by + 1); y++) {
+			for (int x = Math.max(0, bx - 1); x <= Math.min(blocksX - 1, bx + 1); x++) {
+				gain += unknownInBlock[y * blocksX + x];
+			}
+		}
+		return Math.min(gain, MAX_GAIN);
+	}
+
+	private int blockOf(int cell) {
+		return (grid.y(cell) / blockSize) * blocksX + grid.x(cell) / blockSize;
+	}
+
+	/**
+	 * Pushes the entry of given cell, the lower entries get to the top first: the complement of the gain in the top 12 bits, the
+	 * complement of the query in the next 20 bits and the cell in the lower half.
+	 */
+	private void push(int gain, int query, int cell) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+		}
+		final long entry = ((long) (MAX_GAIN - gain) << 52) | ((long) (~query & 0xfffff) << 32) | cell;
+		int i = heapSize++;
+		while (i > 0) {
+			final int up = (i - 1) >>> 1;
+			if (heap[up] <= entry) break;
+			heap[i] = heap[up];
+			i = up;
+		}
+		heap[i] = entry;
+	}
+
+	private long pop() {
+		final long top = heap[0];
+		final long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+
+	@Override
+	public String toString() {
+		return "FrontierIndex [queued=" + size() + ", evaluations=" + evaluations + "]";
+	}
+}
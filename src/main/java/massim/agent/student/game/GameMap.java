@@ -2,6 +2,10 @@ package massim.agent.student.game;
 
 import massim.agent.Action;
 import massim.agent.CellPercept;
+import massim.agent.CellPercepts;
+import massim.agent.CellSink;
+import massim.agent.Grid;
+import massim.agent.PerceptionDelta;
 import massim.agent.Position;
 
 import java.util.Arrays;
@@ -15,88 +19,364 @@ public class GameMap implements GameConstants {
 	/** Map cells content constants. */
 	public static final char FREE = ' ', WALL = '#', FENCE = '+', FENCE_OPEN = '.', SWITCH = '%', AGENT = '@', UNKNOWN = '*';
 
-	/** The map cells. */
-	private final char map[][];
+	/** The map cells, indexed by the grid cell index. */
+	private final MapStore store;
+	private final Grid grid;
+	/** Whether the store keeps the step the cells have been seen in, see {@link MapStore#isStamped()}. */
+	private final boolean stamped;
+	/** Planner of the paths of the planned moves, created on the first planning unless set. */
+	private PathPlanner planner;
+	/** Listeners of the traversability changes. */
+	private CellListener[] listeners = new CellListener[0];
+	/** Listeners of the content changes. */
+	private ContentListener[] contentListeners = new ContentListener[0];
+	/** Number of the changes of the map, see {@link #getVersion()}. */
+	private long version;
 
-	/** Constructor of the GameMap class. */
+	/** Listener of the changes of the map. */
+	public interface CellListener {
+
+		/** Called when given cell has become traversable or it has stopped being traversable. */
+		void traversabilityChanged(int cell);
+
+		/** Called when the whole map has been reset to unknown cells. */
+		void mapCleared();
+	}
+
+	/** Listener of the content changes of the map, e.g. the cells seen first time. */
+	public interface ContentListener {
+
+		/** Called when the content of given cell has changed, the map holds the new content already. */
+		void contentChanged(int cell);
+
+		/** Called when the whole map has been reset to unknown cells. */
+		void mapCleared();
+	}
+
+	/** Writes the decoded cells straight into the map. */
+	private final CellSink cellSink = new CellSink() {
+		private int posX, posY;
+
+		@Override
+		public void begin(int posX, int posY, int step) {
+			this.posX = posX;
+			this.posY = posY;
+			setStep(step);
+		}
+
+		@Override
+		public void visit(int x, int y, int mask, int cowId) {
+			setCell(grid.index(posX + x, posY + y), toContent(mask));
+		}
+
+		@Override
+		public void end() {
+		}
+	};
+
+	/** Writes the cells which came into view or changed into the map. */
+	private final PerceptionDelta.Listener deltaListener = new PerceptionDelta.Listener() {
+		@Override
+		public void begin(int step) {
+			setStep(step);
+		}
+
+		@Override
+		public void entered(int x, int y, int mask, int cowId) {
+			setCell(grid.index(x, y), toContent(mask));
+		}
+
+		@Override
+		public void changed(int x, int y, int previousMask, int mask, int cowId) {
+			setCell(grid.index(x, y), toContent(mask));
+		}
+
+		@Override
+		public void unchanged(int x, int y, int mask, int cowId) {
+			// a teammate may have written an older observation over the cell meanwhile, the stamp of the cell is refreshed
+			if (stamped) {
+				setCell(grid.index(x, y), toContent(mask));
+			}
+		}
+
+		@Override
+		public void left(int x, int y, int mask) {
+		}
+	};
+
+	/** Passes the changes made outside the map to the listeners. */
+	private final ChangeDispatcher changeDispatcher = new ChangeDispatcher();
+
+	private final class ChangeDispatcher implements CellListener, ContentListener {
+
+		@Override
+		public void traversabilityChanged(int cell) {
+			version++;
+			for (CellListener listener : listeners) {
+				listener.traversabilityChanged(cell);
+			}
+		}
+
+		@Override
+		public void contentChanged(int cell) {
+			version++;
+			for (ContentListener listener : contentListeners) {
+				listener.contentChanged(cell);
+			}
+		}
+
+		@Override
+		public void mapCleared() {
+			version++;
+			for (CellListener listener : listeners) {
+				listener.mapCleared();
+			}
+			for (ContentListener listener : contentListeners) {
+				listener.mapCleared();
+			}
+		}
+	}
+
+	/** Constructor of the GameMap class keeping one char per cell. */
 	public GameMap(int width, int height) {
-		map = new char[width][height];
-		init();
+		this(new CharMapStore(width, height));
+	}
+
+	/**
+	 * Constructor of the GameMap class with given storage of the cells.
+	 *
+	 * @see BitboardMapStore
+	 * @see SparseMapStore
+	 */
+	public GameMap(MapStore store) {
+		this(store, true);
+	}
+
+	/** Constructor of the GameMap class, the map over a snapshot of a store is not initialized. */
+	private GameMap(MapStore store, boolean init) {
+		this.store = store;
+		this.grid = store.getGrid();
+		this.stamped = store.isStamped();
+		if (init) init();
+	}
+
+	/**
+	 * Returns a read-only copy of the map at this moment, the later refreshes do not change it. It shares the unchanged cells with this
+	 * map (see {@link MapStore#snapshot()}), so it is cheap. The copy has no listeners and its planner is created on demand, so it may be
+	 * used by another thread, e.g. by a background planner.
+	 */
+	public GameMap snapshot() {
+		return new GameMap(store.snapshot(), false);
 	}
 
 	/** Initializes new map. */
 	public void init() {
-		for (char[] column : map) {
-			Arrays.fill(column, UNKNOWN);
+		store.clear();
+		version++;
+		for (CellListener listener : listeners) {
+			listener.mapCleared();
 		}
+		for (ContentListener listener : contentListeners) {
+			listener.mapCleared();
+		}
+	}
+
+	/** Adds a listener of the traversability changes. */
+	public void addCellListener(CellListener listener) {
+		listeners = Arrays.copyOf(listeners, listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+	}
+
+	/** Adds a listener of the content changes. */
+	public void addContentListener(ContentListener listener) {
+		contentListeners = Arrays.copyOf(contentListeners, contentListeners.length + 1);
+		contentListeners[contentListeners.length - 1] = listener;
+	}
+
+	/**
+	 * Sets the content of given cell and notifies the listeners if it has changed, not when the store has refused the write. The cell is
+	 * written even if its content is the same, the store may keep the step it has been seen in.
+	 */
+	private void setCell(int cell, char content) {
+		if (listeners.length == 0 && contentListeners.length == 0) {
+			// the content is not read, so the write counts as a change
+			if (store.set(cell, content)) {
+				version++;
+			}
+			return;
+		}
+		// a write refused by the store (e.g. a teammate has seen the cell later) changes nothing
+		final char previous = store.get(cell);
+		if (!store.set(cell, content) || previous == content) return;
+		version++;
+		if (isTraversable(previous) != isTraversable(content)) {
+			for (CellListener listener : listeners) {
+				listener.traversabilityChanged(cell);
+			}
+		}
+		for (ContentListener listener : contentListeners) {
+			listener.contentChanged(cell);
+		}
+	}
+
+	/** Sets the simulation step of the observations written next, see {@link MapStore#setStep(int)}. */
+	public void setStep(int step) {
+		store.setStep(step);
+	}
+
+	/**
+	 * Returns the listener passing the changes made outside this map to the listeners of the map, e.g. the changes written by the
+	 * teammates into a shared store.
+	 *
+	 * @see TeamMapStore#pollChanges(CellListener, ContentListener)
+	 */
+	public CellListener getChangeDispatcher() {
+		return changeDispatcher;
+	}
+
+	/**
+	 * Returns the listener passing the content changes made outside this map to the listeners of the map.
+	 *
+	 * @see #getChangeDispatcher()
+	 */
+	public ContentListener getContentDispatcher() {
+		return changeDispatcher;
+	}
+
+	/**
+	 * Returns the version of the map, it grows with the changes of the cells written to the map or passed to it by the dispatchers, so
+	 * a snapshot of the map is still up to date while the version is the same.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/** Returns the storage of the map cells. */
+	public MapStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Returns the planner of the paths of the planned moves, the {@link AStarPlanner} unless another one is set. The
+	 * {@link JumpPointPlanner} expands fewer cells, but its jumps scan the cells one by one, which does not pay off on the maps
+	 * cluttered with obstacles.
+	 */
+	public PathPlanner getPlanner() {
+		if (planner == null) {
+			planner = new AStarPlanner(this);
+		}
+		return planner;
+	}
+
+	/** Sets the planner of the paths of the planned moves, it must plan over this map. */
+	public void setPlanner(PathPlanner planner) {
+		this.planner = planner;
+	}
+
+	/** Returns the coordinates of the map. */
+	public Grid getGrid() {
+		return grid;
 	}
 
 	/** Refreshes the map with given cell percepts. */
 	public void refresh(Position position, Collection<CellPercept> cells) {
 		for (CellPercept cell : cells) {
-			int x = position.getX() + cell.getX();
-			int y = position.getY() + cell.getY();
-			if (cell.isEmpty() || cell.isInCorral()) {
-				map[x][y] = FREE;
-			} else if (cell.containsObstacle() || cell.containsCow()) {
-				map[x][y] = WALL;
-			} else if (cell.containsClosedFence()) {
-				map[x][y] = FENCE;
-			} else if (cell.containsOpenFence()) {
-				map[x][y] = FENCE_OPEN;
-			} else if (cell.containsFenceSwitch()) {
-				map[x][y] = SWITCH;
-			} else if (cell.containsAgent()) {
-				map[x][y] = AGENT;
-			} else {
-				map[x][y] = UNKNOWN;
-			}
+			setCell(grid.index(position.getX() + cell.getX(), position.getY() + cell.getY()), toContent(CellPercepts.maskOf(cell)));
+		}
+	}
+
+	/** Refreshes the map with given cells in the compact representation. */
+	public void refresh(Position position, CellPercepts cells) {
+		refresh(grid.index(position), cells);
+	}
+
+	/** Refreshes the map with given cells in the compact representation seen from given agent cell. */
+	public void refresh(int agentCell, CellPercepts cells) {
+		final int px = grid.x(agentCell), py = grid.y(agentCell);
+		for (int i = 0; i < cells.size(); i++) {
+			setCell(grid.index(px + cells.getX(i), py + cells.getY(i)), toContent(cells.getMask(i)));
+		}
+	}
+
+	/** Returns the sink refreshing the map with the cells as they are decoded. */
+	public CellSink getCellSink() {
+		return cellSink;
+	}
+
+	/** Returns the listener refreshing the map with the differences between the consecutive perceptions. */
+	public PerceptionDelta.Listener getDeltaListener() {
+		return deltaListener;
+	}
+
+	/** Returns the map content of a cell with given content mask. */
+	private static char toContent(int mask) {
+		if ((mask & (CellPercepts.EMPTY | CellPercepts.CORRAL)) != 0) {
+			return FREE;
+		} else if ((mask & (CellPercepts.OBSTACLE | CellPercepts.COW)) != 0) {
+			return WALL;
+		} else if ((mask & CellPercepts.FENCE_CLOSED) != 0) {
+			return FENCE;
+		} else if ((mask & CellPercepts.FENCE_OPEN) != 0) {
+			return FENCE_OPEN;
+		} else if ((mask & CellPercepts.SWITCH) != 0) {
+			return SWITCH;
+		} else if ((mask & CellPercepts.AGENT) != 0) {
+			return AGENT;
+		} else {
+			return UNKNOWN;
 		}
 	}
 
 	/** Returns a map cell at given position. */
 	public char get(Position position) {
-		return map[position.getX()][position.getY()];
+		return store.get(grid.index(position));
+	}
+
+	/** Returns a map cell with given index, {@link #WALL} for the cells outside the map. */
+	public char get(int cell) {
+		return (cell == Grid.NONE) ? WALL : store.get(cell);
+	}
+
+	/** Returns <tt>true</tt> IFF a path can lead through given cell, i.e. it is not a wall, closed fence nor switch. */
+	public boolean isTraversable(int cell) {
+		return isTraversable(store.get(cell));
+	}
+
+	/** Returns <tt>true</tt> IFF a path can lead through a cell with given content. */
+	public static boolean isTraversable(char content) {
+		return content != WALL && content != FENCE && content != SWITCH;
 	}
 
 	/**
 	 * Plans the next move from one position to the other.<br/>
-	 * Note: It will turn clock-wise until a valid move is found.
+	 * Note: It follows the shortest path, see {@link #planMove(int, int)}.
 	 */
 	public Action planMove(Position fromPos, Position toPos) {
-		Action action = getAction(fromPos, toPos);
-		Position next = move(fromPos, action);
-		while (map[next.getX()][next.getY()] != FREE && map[next.getX()][next.getY()] != FENCE_OPEN) {
-			action = next(action);
-			next = move(fromPos, action);
+		return planMove(grid.index(fromPos), grid.index(toPos));
+	}
+
+	/**
+	 * Plans the next move from one cell to the other along the shortest path found by the planner. When there is no path or its next
+	 * cell cannot be entered now (e.g. another agent stands there), it falls back to the direct move.
+	 */
+	public Action planMove(int from, int to) {
+		final PathPlanner planner = getPlanner();
+		if (planner.plan(from, to) > 0 && store.isPassable(planner.getPathCell(0))) {
+			return planner.getNextAction();
 		}
-		return action;
+		return planDirectMove(from, to);
 	}
 
 	/**
-	 * Returns a scouting direction (action) for given agent position.<br/>
-	 * Note: Scouting route goes along the border of the map.
+	 * Plans the move in the direction of the other cell.<br/>
+	 * Note: It will turn clock-wise until a valid move is found, it skips when there is none.
 	 */
-	public Action getScoutDirection(Position agentPos) {
-		final int x = agentPos.getX(), y = agentPos.getY();
-		final int left = 1, center = map.length / 2, right = map.length - 2;
-		final int top = 1, middle = map[0].length / 2, bottom = map[0].length - 2;
-
-		if (x > left && x < right && y > top && y < bottom) {
-			// direction to reach map border
-			if (Math.abs(x - center) < Math.abs(y - middle)) {
-				return (y < middle) ? Action.NORTH : Action.SOUTH;
-			} else {
-				return (x < center) ? Action.WEST : Action.EAST;
-			}
-		} else if (x <= left && y > top) {
-			return Action.NORTH;
-		} else if (y <= top && x < right) {
-			return Action.EAST;
-		} else if (x >= right && y < bottom) {
-			return Action.SOUTH;
-		} else if (y >= bottom && x > left) {
-			return Action.WEST;
+	public Action planDirectMove(int from, int to) {
+		Action action = grid.getAction(from, to);
+		for (int turns = 0; action != Action.SKIP && turns < 5; turns++) {
+			final int next = grid.move(from, action);
+			if (next != Grid.NONE && store.isPassable(next)) return action;
+			action = Grid.next(action);
 		}
 		return Action.SKIP;
 	}
@@ -106,9 +386,14 @@ public class GameMap implements GameConstants {
 	 * Note: Idle walk goes clock-wise around the map.
 	 */
 	public Action getIdleWalkDirection(Position agentPos) {
-		final int x = agentPos.getX(), y = agentPos.getY();
-		final int left = 2, center = map.length / 2, right = map.length - 3;
-		final int top = 2, middle = map[0].length / 2, bottom = map[0].length - 3;
+		return getIdleWalkDirection(grid.index(agentPos));
+	}
+
+	/** Returns a direction (action) of idle walk for given agent cell. */
+	public Action getIdleWalkDirection(int agentCell) {
+		final int x = grid.x(agentCell), y = grid.y(agentCell);
+		final int left = 2, center = grid.getWidth() / 2, right = grid.getWidth() - 3;
+		final int top = 2, middle = grid.getHeight() / 2, bottom = grid.getHeight() - 3;
 
 		// if on scouting rout, go away
 		if (x <= left && y > top) {
@@ -130,10 +415,11 @@ public class GameMap implements GameConstants {
 
 	/** Returns the map as a string. */
 	public String toString() {
-		final StringBuilder sb = new StringBuilder(map.length + map.length * map[0].length);
-		for (int row = 0, height = map[0].length; row < height; row++) {
-			for (char[] column : map) {
-				sb.append(column[row]);
+		final int width = grid.getWidth(), height = grid.getHeight();
+		final StringBuilder sb = new StringBuilder(height + width * height);
+		for (int row = 0; row < height; row++) {
+			for (int column = 0; column < width; column++) {
+				sb.append(store.get(grid.index(column, row)));
 			}
 			sb.append('\n');
 		}
@@ -142,38 +428,13 @@ public class GameMap implements GameConstants {
 
 	/** Returns an Action to get form one position to the other. */
 	public static Action getAction(Position fromPos, Position toPos) {
-		final int fromX = fromPos.getX(), fromY = fromPos.getY();
-		final int toX = toPos.getX(), toY = toPos.getY();
-
-		if (fromX == toX && fromY == toY) {
-			return Action.SKIP;
-		} else if (fromX == toX) {
-			return (fromY < toY) ? Action.SOUTH : Action.NORTH;
-		} else if (fromY == toY) {
-			return (fromX < toX) ? Action.EAST : Action.WEST;
-		} else {
-			if (fromX < toX) {
-				return (fromY < toY) ? Action.SOUTHEAST : Action.NORTHEAST;
-			} else {
-				return (fromY < toY) ? Action.SOUTHWEST : Action.NORTHWEST;
-			}
-		}
+		return Grid.getDirection(toPos.getX() - fromPos.getX(), toPos.getY() - fromPos.getY());
 	}
 
 	/** Returns new position after the one move. */
 	public static Position move(Position position, Action action) {
-		final int x = position.getX(), y = position.getY();
-		switch (action) {
-			case NORTH: return new Position(x, y - 1);
-			case SOUTH: return new Position(x, y + 1);
-			case WEST: return new Position(x - 1, y);
-			case EAST: return new Position(x + 1, y);
-			case NORTHWEST: return new Position(x - 1, y - 1);
-			case NORTHEAST: return new Position(x + 1, y - 1);
-			case SOUTHWEST: return new Position(x - 1, y + 1);
-			case SOUTHEAST: return new Position(x + 1, y + 1);
-			default: return position;
-		}
+		if (action == Action.SKIP) return position;
+		return new Position(position.getX() + Grid.getDeltaX(action), position.getY() + Grid.getDeltaY(action));
 	}
 
 	/**
@@ -181,17 +442,7 @@ public class GameMap implements GameConstants {
 	 * Note: Next in clock-wise sense skipping diagonal directions.
 	 */
 	public static Action next(Action action) {
-		switch (action) {
-			case NORTH: return Action.EAST;
-			case NORTHEAST: return Action.EAST;
-			case EAST: return Action.SOUTH;
-			case SOUTHEAST: return Action.SOUTH;
-			case SOUTH: return Action.WEST;
-			case SOUTHWEST: return Action.WEST;
-			case WEST: return Action.NORTH;
-			case NORTHWEST: return Action.NORTH;
-			default: return Action.SKIP;
-		}
+		return Grid.next(action);
 	}
 
 	/** Returns <tt>true</tt> IFF the agent is near given checkpoint. */
@@ -199,6 +450,11 @@ public class GameMap implements GameConstants {
 		return getDistance(agentPos, checkpoint) < 5;
 	}
 
+	/** Returns <tt>true</tt> IFF the agent is near given checkpoint, both given as cells. */
+	public boolean isNearCheckpoint(int agentCell, int checkpointCell) {
+		return grid.distance(agentCell, checkpointCell) < 5;
+	}
+
 	/** Returns the Manhattan distance between given two points. */
 	public static int getDistance(Position one, Position two) {
 		return Math.max(Math.abs(one.getX() - two.getX()), Math.abs(one.getY() - two.getY()));
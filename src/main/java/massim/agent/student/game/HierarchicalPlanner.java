@@ -0,0 +1,165 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+/**
+ * Hierarchical path planner (HPA*) for the large maps. The paths are searched in the abstract graph of the clusters of the map first,
+ * then refined into cells by searches limited to single clusters, see {@link ClusterGraph}. The graph depends on the map only, so the
+ * planners of a team may share one, the planner itself keeps only the path of its agent.
+ * <p/>
+ * The refined path is kept while the agent follows it and no traversability change touches it, so the repeated planning to the same
+ * goal costs next to nothing. The paths are near-optimal, they pass the transitions the abstract graph offers.
+ */
+public class HierarchicalPlanner implements PathPlanner, GameMap.CellListener {
+
+	private final Grid grid;
+	private final ClusterGraph graph;
+
+	/** The refined path without its start, the cells of the current path start at the offset. */
+	private int[] path;
+	private int pathStart, pathOffset, pathLength, pathGoal;
+	/** Bounds of the cells of the kept path. */
+	private int minX, minY, maxX, maxY;
+	private boolean pathValid;
+	private int start, expanded;
+
+	/** Constructor of the HierarchicalPlanner class with the clusters of 16x16 cells. */
+	public HierarchicalPlanner(GameMap map) {
+		this(map, 16);
+	}
+
+	/** Constructor of the HierarchicalPlanner class with a graph of its own, see below. */
+	public HierarchicalPlanner(GameMap map, int clusterSize) {
+		this(map, new ClusterGraph(map, clusterSize));
+	}
+
+	/**
+	 * Constructor of the HierarchicalPlanner class, the planner registers itself as a listener of the map.
+	 *
+	 * @param map   the map
+	 * @param graph the graph of the clusters of the map, or of a map sharing its cells
+	 */
+	public HierarchicalPlanner(GameMap map, ClusterGraph graph) {
+		this.grid = map.getGrid();
+		this.graph = graph;
+		this.pathLength = -1;
+		map.addCellListener(this);
+	}
+
+	@Override
+	public int plan(int from, int to) {
+		start = from;
+		expanded = 0;
+		if (pathValid && to == pathGoal) {
+			final int offset = offsetOf(from);
+			if (offset >= 0) {
+				// still on the refined path
+				pathOffset = offset;
+				pathLength = path.length - pathOffset;
+				return pathLength;
+			}
+		}
+		pathValid = false;
+		pathOffset = 0;
+		pathLength = -1;
+		if (from == to) {
+			pathLength = 0;
+			return pathLength;
+		}
+
+		final int[] found;
+		synchronized (graph) {
+			found = graph.findPath(from, to);
+			expanded = graph.getExpanded();
+		}
+		if (found != null) {
+			keep(from, to, found);
+			pathLength = path.length;
+		}
+		return pathLength;
+	}
+
+	@Override
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	@Override
+	public int getPathCell(int step) {
+		return path[pathOffset + step];
+	}
+
+	@Override
+	public Action getNextAction() {
+		return (pathLength > 0) ? grid.getAction(start, path[pathOffset]) : Action.SKIP;
+	}
+
+	/** Returns the number of the abstract nodes and of the cells expanded by the last planning, 0 if the kept path has been used. */
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/** Drops the kept path when the cell or a cell it may cut a corner of lies on it. */
+	@Override
+	public void traversabilityChanged(int cell) {
+		if (!pathValid) return;
+		final int x = grid.x(cell), y = grid.y(cell);
+		if (x < minX - 1 || x > maxX + 1 || y < minY - 1 || y > maxY + 1) return;
+		if (isNear(pathStart, x, y)) {
+			pathValid = false;
+			return;
+		}
+		for (int pathCell : path) {
+			if (isNear(pathCell, x, y)) {
+				pathValid = false;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void mapCleared() {
+		pathValid = false;
+	}
+
+	/** Returns the number of the nodes of the abstract graph, the entrances of the changed clusters are rebuilt first. */
+	public int getNodeCount() {
+		return graph.getNodeCount();
+	}
+
+	/** Keeps given path and its bounds. */
+	private void keep(int from, int to, int[] found) {
+		path = found;
+		pathStart = from;
+		pathGoal = to;
+		pathValid = true;
+		minX = maxX = grid.x(from);
+		minY = maxY = grid.y(from);
+		for (int cell : path) {
+			final int x = grid.x(cell), y = grid.y(cell);
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+	}
+
+	/** Returns the offset of the path following given cell, -1 if the cell does not lie on the kept path. */
+	private int offsetOf(int cell) {
+		if (cell == pathStart) return 0;
+		// the agent has usually moved by one cell along the path
+		for (int i = pathOffset; i < path.length; i++) {
+			if (path[i] == cell) return i + 1;
+		}
+		for (int i = 0; i < pathOffset && i < path.length; i++) {
+			if (path[i] == cell) return i + 1;
+		}
+		return -1;
+	}
+
+	private boolean isNear(int cell, int x, int y) {
+		return Math.abs(grid.x(cell) - x) <= 1 && Math.abs(grid.y(cell) - y) <= 1;
+	}
+}
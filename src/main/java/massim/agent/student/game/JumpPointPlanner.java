@@ -0,0 +1,115 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+/**
+ * Jump Point Search path planner. It prunes the symmetric paths of the uniform-cost grid: from every expanded cell it jumps in the
+ * direction of travel until a cell with a forced neighbour (a jump point) or the goal is found, so only the jump points enter the open
+ * list. The paths are as short as those of the {@link AStarPlanner}. It pays off on the open maps, where the jumps are long, it has to
+ * be set to the map explicitly, see {@link GameMap#setPlanner(PathPlanner)}.
+ */
+public class JumpPointPlanner extends AbstractPathPlanner {
+
+	/** Directions of the successors of the expanded cell. */
+	private final int[] directionX = new int[8], directionY = new int[8];
+
+	/** Constructor of the JumpPointPlanner class. */
+	public JumpPointPlanner(GameMap map) {
+		super(map);
+	}
+
+	@Override
+	void expand(int cell, int parent) {
+		final int x = cell % width, y = cell / width;
+		final int count = (parent == Grid.NONE) ? allDirections(x, y) : prunedDirections(x, y, parent);
+		for (int i = 0; i < count; i++) {
+			final int jumpPoint = jump(x + directionX[i], y + directionY[i], directionX[i], directionY[i]);
+			if (jumpPoint != Grid.NONE) {
+				relax(cell, jumpPoint, heuristic(cell, jumpPoint));
+			}
+		}
+	}
+
+	/** Writes all the directions allowed from given cell, returns their number. */
+	private int allDirections(int x, int y) {
+		int count = 0;
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				if (dx == 0 && dy == 0) continue;
+				if (dx != 0 && dy != 0 && (!isWalkable(x + dx, y) || !isWalkable(x, y + dy))) continue;
+				count = addDirection(count, dx, dy);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the natural and the forced directions of the travel from the parent cell, returns their number. The diagonal moves do not
+	 * cut the corners, so a diagonal travel has its three natural directions only, and a straight travel turns only to the side where
+	 * the cell beside the parent is blocked: on the other side the cells are reached as cheaply by a diagonal move first.
+	 */
+	private int prunedDirections(int x, int y, int parent) {
+		final int dx = Integer.signum(x - parent % width), dy = Integer.signum(y - parent / width);
+		int count = 0;
+		if (dx != 0 && dy != 0) {
+			final boolean vertical = isWalkable(x, y + dy), horizontal = isWalkable(x + dx, y);
+			if (vertical) count = addDirection(count, 0, dy);
+			if (horizontal) count = addDirection(count, dx, 0);
+			if (vertical && horizontal) count = addDirection(count, dx, dy);
+		} else if (dx != 0) {
+			final boolean next = isWalkable(x + dx, y);
+			if (next) count = addDirection(count, dx, 0);
+			for (int side = -1; side <= 1; side += 2) {
+				if (isWalkable(x, y + side) && !isWalkable(x - dx, y + side)) {
+					count = addDirection(count, 0, side);
+					if (next) count = addDirection(count, dx, side);
+				}
+			}
+		} else {
+			final boolean next = isWalkable(x, y + dy);
+			if (next) count = addDirection(count, 0, dy);
+			for (int side = -1; side <= 1; side += 2) {
+				if (isWalkable(x + side, y) && !isWalkable(x + side, y - dy)) {
+					count = addDirection(count, side, 0);
+					if (next) count = addDirection(count, side, dy);
+				}
+			}
+		}
+		return count;
+	}
+
+	private int addDirection(int count, int dx, int dy) {
+		directionX[count] = dx;
+		directionY[count] = dy;
+		return count + 1;
+	}
+
+	/**
+	 * Travels from given cell in given direction until a jump point is found.
+	 *
+	 * @return the jump point, {@link Grid#NONE} if the travel ends at an obstacle
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		while (true) {
+			if (!isWalkable(x, y)) return Grid.NONE;
+			final int cell = y * width + x;
+			if (cell == goal) return cell;
+
+			if (dx != 0 && dy != 0) {
+				if (jump(x + dx, y, dx, 0) != Grid.NONE || jump(x, y + dy, 0, dy) != Grid.NONE) return cell;
+			} else if (dx != 0) {
+				if ((isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1)) || (isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1))) {
+					return cell;
+				}
+			} else {
+				if ((isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy)) || (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy))) {
+					return cell;
+				}
+			}
+
+			if (!isWalkable(x + dx, y) || !isWalkable(x, y + dy)) return Grid.NONE;
+			x += dx;
+			y += dy;
+		}
+	}
+}
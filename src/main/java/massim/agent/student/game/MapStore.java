@@ -0,0 +1,47 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+/**
+ * Storage of the map cells used by the {@link GameMap}. The cells are addressed by the indices of the grid and hold the content
+ * constants of the {@link GameMap}.
+ */
+public interface MapStore {
+
+	/** Returns the coordinates of the stored map. */
+	Grid getGrid();
+
+	/** Returns the content of given cell. */
+	char get(int cell);
+
+	/**
+	 * Sets the content of given cell.
+	 *
+	 * @return <tt>false</tt> if the store has kept the cell as it was, e.g. it holds a later observation of the cell
+	 */
+	boolean set(int cell, char content);
+
+	/** Returns <tt>true</tt> IFF an agent can enter given cell, i.e. it is free or an open fence. */
+	boolean isPassable(int cell);
+
+	/**
+	 * Sets the simulation step of the observations written next. The stores which keep the step a cell has been seen in stamp the
+	 * written cells with it, the others ignore it.
+	 */
+	void setStep(int step);
+
+	/**
+	 * Returns <tt>true</tt> IFF the store keeps the step the cells have been seen in, e.g. to let the newest observation win. The cells
+	 * seen unchanged are written to such a store again, so the step stays current.
+	 */
+	boolean isStamped();
+
+	/** Sets all the cells unknown. */
+	void clear();
+
+	/**
+	 * Returns a read-only copy of the cells at this moment, the later writes do not change it. The stores share the unchanged cells
+	 * with their snapshots, so a snapshot is cheap and it may be read by other threads while the store is being written.
+	 */
+	MapStore snapshot();
+}
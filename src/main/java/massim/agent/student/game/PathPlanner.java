@@ -0,0 +1,34 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+
+/**
+ * Planner of the shortest paths over the cells of a {@link GameMap}. The agents move to the 8 neighbouring cells, a diagonal move
+ * costs <tt>sqrt(2)</tt> (octile distance) and it is allowed only when both the adjacent straight cells are traversable. The unknown
+ * cells are considered traversable.
+ * <p/>
+ * The planner reuses its buffers, the path of the last search is valid until the next one.
+ */
+public interface PathPlanner {
+
+	/**
+	 * Finds the shortest path between given cells.
+	 *
+	 * @param from the starting cell
+	 * @param to   the goal cell
+	 * @return the number of the moves of the path, -1 if there is no path
+	 */
+	int plan(int from, int to);
+
+	/** Returns the number of the moves of the last path, -1 if there has been no path. */
+	int getPathLength();
+
+	/** Returns the cell reached after <tt>step + 1</tt> moves of the last path. */
+	int getPathCell(int step);
+
+	/** Returns the first move of the last path, skip if there is none. */
+	Action getNextAction();
+
+	/** Returns the number of the cells expanded by the last search. */
+	int getExpanded();
+}
@@ -0,0 +1,38 @@
+package massim.agent.student.game;
+
+/**
+ * Base of the snapshots of the map stores, all the writes are refused.
+ */
+abstract class ReadOnlyMapStore implements MapStore {
+
+	@Override
+	public boolean set(int cell, char content) {
+		throw new UnsupportedOperationException("read-only snapshot of the map");
+	}
+
+	@Override
+	public boolean isPassable(int cell) {
+		final char content = get(cell);
+		return content == GameMap.FREE || content == GameMap.FENCE_OPEN;
+	}
+
+	@Override
+	public void setStep(int step) {
+		throw new UnsupportedOperationException("read-only snapshot of the map");
+	}
+
+	@Override
+	public boolean isStamped() {
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("read-only snapshot of the map");
+	}
+
+	@Override
+	public MapStore snapshot() {
+		return this;
+	}
+}
@@ -0,0 +1,292 @@
+package massim.agent.student.game;
+
+import massim.agent.Action;
+import massim.agent.Grid;
+
+import java.util.Arrays;
+
+/**
+ * Graph of the free regions of the known map connected by the fences. A region is a 4-connected set of the known free cells, it is
+ * kept in a union-find structure which joins the cells as they become known, and a fence recognized by the {@link FenceIndex} is an
+ * edge (gate) between the regions next to its cells, passable only while its switch is held. The unknown cells belong to no region,
+ * so the graph answers what is known to be reachable and which switches have to be held on the way without any search of the grid.
+ * <p/>
+ * A union-find structure cannot split a region, so when a free cell stops being free (e.g. a cell seen wrong) the regions are
+ * rebuilt on the next query. The gates are collected again on the first query after a change of the map.
+ * <p/>
+ * The agents of a team sharing a {@link TeamWorldModel} use one graph ({@link TeamMapStore#getRegionGraph()}), so the methods are
+ * synchronized, the graph locks its fence index while it reads the fences.
+ */
+public class RegionGraph implements GameMap.ContentListener {
+
+	/** The straight moves, the regions are joined along them. */
+	private static final Action[] STRAIGHT = {Action.NORTH, Action.EAST, Action.SOUTH, Action.WEST};
+
+	private final GameMap map;
+	private final Grid grid;
+	private final FenceIndex fences;
+
+	/** Parent of the region cells in the union-find structure, a root is its own parent, -1 for the other cells. */
+	private final int[] parent;
+	/** Number of the cells of the regions, valid for the roots. */
+	private final int[] size;
+	private int regionCount;
+	/** Whether the regions have to be rebuilt from the whole map. */
+	private boolean rebuild;
+
+	/** Whether the gates have to be collected again. */
+	private boolean gatesChanged;
+	private int gateCount;
+	/** Switch of the gates. */
+	private int[] gateSwitch = new int[4];
+	/** Regions next to the gates, <tt>gateRegions[gateStart[g]..gateStart[g + 1])</tt> for the gate g. */
+	private int[] gateStart = new int[5], gateRegions = new int[16];
+
+	/** Gate the region has been reached through in the last query and the number of the gates passed, valid for the stamped roots. */
+	private final int[] reachedThrough, depth;
+	private final int[] reached;
+	private int stamp;
+
+	/** Constructor of the RegionGraph class, the graph registers itself as a listener of the map after given fence index. */
+	public RegionGraph(GameMap map, FenceIndex fences) {
+		this.map = map;
+		this.grid = map.getGrid();
+		this.fences = fences;
+		this.parent = new int[grid.size()];
+		this.size = new int[grid.size()];
+		this.reachedThrough = new int[grid.size()];
+		this.depth = new int[grid.size()];
+		this.reached = new int[grid.size()];
+		map.addContentListener(this);
+		mapCleared();
+	}
+
+	@Override
+	public synchronized void contentChanged(int cell) {
+		gatesChanged = true;
+		if (rebuild) return;
+		final boolean wasFree = parent[cell] >= 0, isFree = isFree(cell);
+		if (wasFree && !isFree) {
+			rebuild = true;
+		} else if (!wasFree && isFree) {
+			add(cell);
+		}
+	}
+
+	@Override
+	public synchronized void mapCleared() {
+		rebuild = true;
+		gatesChanged = true;
+	}
+
+	/**
+	 * Returns the region of given cell, the same for all the cells of the region until it is joined with another one.
+	 *
+	 * @return the region, -1 if the cell is not a known free cell
+	 */
+	public synchronized int getRegion(int cell) {
+		if (rebuild) {
+			rebuild();
+		}
+		return (parent[cell] < 0) ? -1 : find(cell);
+	}
+
+	/** Returns the number of the cells of the region of given cell, 0 if the cell is not a known free cell. */
+	public synchronized int getRegionSize(int cell) {
+		final int region = getRegion(cell);
+		return (region < 0) ? 0 : size[region];
+	}
+
+	/** Returns the number of the regions. */
+	public synchronized int getRegionCount() {
+		if (rebuild) {
+			rebuild();
+		}
+		return regionCount;
+	}
+
+	/** Returns the number of the gates, the recognized fences with a region next to them. */
+	public synchronized int getGateCount() {
+		collectGates();
+		return gateCount;
+	}
+
+	/** Returns <tt>true</tt> IFF given cells are in the same region, i.e. one is reachable from the other through known free cells. */
+	public synchronized boolean isConnected(int from, int to) {
+		final int region = getRegion(from);
+		return region >= 0 && region == getRegion(to);
+	}
+
+	/** Returns <tt>true</tt> IFF given cells are connected through known free cells and known fences. */
+	public synchronized boolean isReachable(int from, int to) {
+		return getSwitchesToHold(from, to) != null;
+	}
+
+	/**
+	 * Returns the switches which have to be held to get from one cell to the other through the fewest fences.
+	 *
+	 * @return the switches in the order of the fences on the way, an empty array if the cells are in the same region, null if the way is
+	 * not known
+	 */
+	public synchronized int[] getSwitchesToHold(int from, int to) {
+		final int start = getRegion(from), goal = getRegion(to);
+		if (start < 0 || goal < 0) return null;
+		if (start == goal) return new int[0];
+		collectGates();
+
+		// breadth-first over the gates, the regions of one layer are reached through the same number of fences
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(reached, 0);
+			stamp = 1;
+		}
+		reached[start] = stamp;
+		depth[start] = 0;
+		reachedThrough[start] = -1;
+		for (int layer = 1; reached[goal] != stamp; layer++) {
+			boolean progress = false;
+			for (int gate = 0; gate < gateCount; gate++) {
+				if (entryOf(gate, layer) < 0) continue;
+				for (int i = gateStart[gate]; i < gateStart[gate + 1]; i++) {
+					final int region = gateRegions[i];
+					if (reached[region] != stamp) {
+						reached[region] = stamp;
+						depth[region] = layer;
+						reachedThrough[region] = gate;
+						progress = true;
+					}
+				}
+			}
+			if (!progress) return null;
+		}
+
+		// the gates back from the goal, each one entered from a region of the previous layer
+		final int[] switches = new int[depth[goal]];
+		for (int region = goal; depth[region] > 0; ) {
+			final int gate = reachedThrough[region];
+			switches[depth[region] - 1] = gateSwitch[gate];
+			region = entryOf(gate, depth[region]);
+		}
+		return switches;
+	}
+
+	/** Returns a region next to given gate reached in a layer before given one, -1 if there is none. */
+	private int entryOf(int gate, int layer) {
+		for (int i = gateStart[gate]; i < gateStart[gate + 1]; i++) {
+			final int region = gateRegions[i];
+			if (reached[region] == stamp && depth[region] < layer) return region;
+		}
+		return -1;
+	}
+
+	/** Makes given cell a region and joins it with the regions next to it. */
+	private void add(int cell) {
+		parent[cell] = cell;
+		size[cell] = 1;
+		regionCount++;
+		for (Action direction : STRAIGHT) {
+			final int next = grid.move(cell, direction);
+			if (next != Grid.NONE && parent[next] >= 0) {
+				union(cell, next);
+			}
+		}
+	}
+
+	private int find(int cell) {
+		while (parent[cell] != cell) {
+			// path halving
+			parent[cell] = parent[parent[cell]];
+			cell = parent[cell];
+		}
+		return cell;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a), rootB = find(b);
+		if (rootA == rootB) return;
+		if (size[rootA] < size[rootB]) {
+			final int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		regionCount--;
+	}
+
+	/** Joins the known free cells of the whole map again. */
+	private void rebuild() {
+		rebuild = false;
+		Arrays.fill(parent, -1);
+		regionCount = 0;
+		for (int cell = 0; cell < grid.size(); cell++) {
+			if (isFree(cell)) {
+				add(cell);
+			}
+		}
+	}
+
+	/** Collects the regions next to the cells of every recognized fence if the map has changed. */
+	private void collectGates() {
+		if (rebuild) {
+			rebuild();
+		}
+		if (!gatesChanged) return;
+		gatesChanged = false;
+		final int regions;
+		synchronized (fences) {
+			regions = collectFenceGates();
+		}
+		gateStart[gateCount] = regions;
+	}
+
+	/** Collects the gates of the recognized fences, returns the number of the regions next to them. */
+	private int collectFenceGates() {
+		gateCount = 0;
+		int regions = 0;
+		for (int fence = 0; fence < fences.getFenceCount(); fence++) {
+			if (fences.getLength(fence) == 0) continue;
+			if (gateCount == gateSwitch.length) {
+				gateSwitch = Arrays.copyOf(gateSwitch, gateCount * 2);
+				gateStart = Arrays.copyOf(gateStart, gateCount * 2 + 1);
+			}
+			gateStart[gateCount] = regions;
+			for (int i = 0; i < fences.getLength(fence); i++) {
+				final int cell = fences.getCell(fence, i);
+				for (Action direction : STRAIGHT) {
+					final int next = grid.move(cell, direction);
+					if (next == Grid.NONE || parent[next] < 0) continue;
+					final int region = find(next);
+					if (contains(gateRegions, gateStart[gateCount], regions, region)) continue;
+					if (regions == gateRegions.length) {
+						gateRegions = Arrays.copyOf(gateRegions, regions * 2);
+					}
+					gateRegions[regions++] = region;
+				}
+			}
+			// a fence with the regions on one side only leads nowhere yet
+			if (regions - gateStart[gateCount] < 2) {
+				regions = gateStart[gateCount];
+				continue;
+			}
+			gateSwitch[gateCount++] = fences.getSwitch(fence);
+		}
+		return regions;
+	}
+
+	private boolean isFree(int cell) {
+		final char content = map.get(cell);
+		return content == GameMap.FREE || content == GameMap.AGENT;
+	}
+
+	private static boolean contains(int[] values, int from, int to, int value) {
+		for (int i = from; i < to; i++) {
+			if (values[i] == value) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RegionGraph [regions=" + getRegionCount() + ", gates=" + getGateCount() + "]";
+	}
+}
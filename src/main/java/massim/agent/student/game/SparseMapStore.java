@@ -0,0 +1,194 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Map storage for the huge grids most of which is never seen. The cells are kept in square tiles of 16x16 cells allocated when a known
+ * content is first written into them, a missing tile is unknown. The reset only starts a new generation, the tiles of the older
+ * generations are unknown and they are reused on the next write, so it takes constant time.
+ * <p/>
+ * Like the {@link CharMapStore} the tiles are shared with the snapshots and copied on the first write after a snapshot. The explored
+ * tiles can be written to a stream and read back.
+ */
+public class SparseMapStore implements MapStore {
+
+	/** Size of the side of a tile, a power of two. */
+	private static final int TILE_BITS = 4, TILE_SIZE = 1 << TILE_BITS, TILE_MASK = TILE_SIZE - 1;
+
+	private final Grid grid;
+	private final int width, tilesX;
+	/** The tiles, null if not allocated yet. */
+	private final char[][] tiles;
+	/** Generation the tile has been written in, the tiles of an older one are unknown. */
+	private final int[] tileGenerations;
+	/** Snapshot epoch the tile has been copied in, a tile of an older epoch is shared with a snapshot. */
+	private final int[] tileEpochs;
+	private int generation, epoch;
+	private int allocated;
+
+	/** Constructor of the SparseMapStore class, no tile is allocated. */
+	public SparseMapStore(int width, int height) {
+		this.grid = new Grid(width, height);
+		this.width = width;
+		this.tilesX = (width + TILE_MASK) >>> TILE_BITS;
+		final int tileCount = tilesX * ((height + TILE_MASK) >>> TILE_BITS);
+		tiles = new char[tileCount][];
+		tileGenerations = new int[tileCount];
+		tileEpochs = new int[tileCount];
+		generation = 1;
+	}
+
+	@Override
+	public Grid getGrid() {
+		return grid;
+	}
+
+	@Override
+	public char get(int cell) {
+		final int x = cell % width, y = cell / width;
+		final int tile = (y >>> TILE_BITS) * tilesX + (x >>> TILE_BITS);
+		if (tileGenerations[tile] != generation) return GameMap.UNKNOWN;
+		return tiles[tile][((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK)];
+	}
+
+	@Override
+	public boolean set(int cell, char content) {
+		final int x = cell % width, y = cell / width;
+		final int tile = (y >>> TILE_BITS) * tilesX + (x >>> TILE_BITS);
+		if (tileGenerations[tile] != generation) {
+			if (content == GameMap.UNKNOWN) return true;
+			if (tiles[tile] == null || tileEpochs[tile] != epoch) {
+				if (tiles[tile] == null) allocated++;
+				tiles[tile] = new char[TILE_SIZE * TILE_SIZE];
+				tileEpochs[tile] = epoch;
+			}
+			Arrays.fill(tiles[tile], GameMap.UNKNOWN);
+			tileGenerations[tile] = generation;
+		} else if (tileEpochs[tile] != epoch) {
+			tiles[tile] = tiles[tile].clone();
+			tileEpochs[tile] = epoch;
+		}
+		tiles[tile][((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK)] = content;
+		return true;
+	}
+
+	@Override
+	public boolean isPassable(int cell) {
+		final char content = get(cell);
+		return content == GameMap.FREE || content == GameMap.FENCE_OPEN;
+	}
+
+	@Override
+	public void setStep(int step) {
+	}
+
+	@Override
+	public boolean isStamped() {
+		return false;
+	}
+
+	/** Forgets all the cells in constant time, the allocated tiles are kept for reuse. */
+	@Override
+	public void clear() {
+		if (++generation == Integer.MAX_VALUE) {
+			Arrays.fill(tileGenerations, 0);
+			generation = 1;
+		}
+	}
+
+	@Override
+	public MapStore snapshot() {
+		final char[][] shared = new char[tiles.length][];
+		for (int i = 0; i < tiles.length; i++) {
+			if (tileGenerations[i] == generation) shared[i] = tiles[i];
+		}
+		epoch++;
+		return new Snapshot(grid, tilesX, shared);
+	}
+
+	/** Returns the number of the tiles allocated so far, including the ones kept for reuse. */
+	public int getAllocatedTiles() {
+		return allocated;
+	}
+
+	/** Returns the number of the tiles with known cells. */
+	public int getExploredTiles() {
+		int count = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (tileGenerations[i] == generation) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the explored tiles: the grid size and the number of the tiles followed by the index and the cells of every tile, one byte
+	 * per cell.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(grid.getWidth());
+		out.writeInt(grid.getHeight());
+		out.writeInt(getExploredTiles());
+		for (int i = 0; i < tiles.length; i++) {
+			if (tileGenerations[i] != generation) continue;
+			out.writeInt(i);
+			for (char content : tiles[i]) {
+				out.writeByte(content);
+			}
+		}
+	}
+
+	/** Reads the store written by {@link #writeTo(DataOutput)}. */
+	public static SparseMapStore readFrom(DataInput in) throws IOException {
+		final SparseMapStore store = new SparseMapStore(in.readInt(), in.readInt());
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final int tile = in.readInt();
+			if (tile < 0 || tile >= store.tiles.length) throw new IOException("invalid tile " + tile);
+			final char[] cells = new char[TILE_SIZE * TILE_SIZE];
+			for (int j = 0; j < cells.length; j++) {
+				cells[j] = (char) in.readUnsignedByte();
+			}
+			store.tiles[tile] = cells;
+			store.tileGenerations[tile] = store.generation;
+			store.allocated++;
+		}
+		return store;
+	}
+
+	@Override
+	public String toString() {
+		return "SparseMapStore [grid=" + grid + ", tiles=" + tiles.length + ", explored=" + getExploredTiles() + "]";
+	}
+
+	/** Snapshot sharing the tiles of the store. */
+	private static final class Snapshot extends ReadOnlyMapStore {
+
+		private final Grid grid;
+		private final int width, tilesX;
+		private final char[][] tiles;
+
+		Snapshot(Grid grid, int tilesX, char[][] tiles) {
+			this.grid = grid;
+			this.width = grid.getWidth();
+			this.tilesX = tilesX;
+			this.tiles = tiles;
+		}
+
+		@Override
+		public Grid getGrid() {
+			return grid;
+		}
+
+		@Override
+		public char get(int cell) {
+			final int x = cell % width, y = cell / width;
+			final char[] tile = tiles[(y >>> TILE_BITS) * tilesX + (x >>> TILE_BITS)];
+			return (tile == null) ? GameMap.UNKNOWN : tile[((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK)];
+		}
+	}
+}
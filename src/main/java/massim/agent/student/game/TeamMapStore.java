@@ -0,0 +1,223 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * View of one agent into the {@link TeamWorldModel}. The cells are read from and written to the model shared by the team, the view
+ * itself only keeps the step of its observations and its position in the journal of the changes. The structures which depend only on
+ * the map (e.g. the distance fields) are kept once for the team and handed out by the views.
+ * <p/>
+ * One view is used by one agent, its {@link #pollChanges(GameMap.CellListener, GameMap.ContentListener)} and {@link #sync(int)} are
+ * called at the start of the deliberation.
+ */
+public class TeamMapStore implements MapStore {
+
+	/** Flag of the journal entries of the traversability changes. */
+	static final long TRAVERSABILITY = 1L << 31;
+
+	private final Grid grid;
+	private final TeamWorldModel.Cells cells;
+	private final AtomicLongArray journal;
+	private final AtomicLong journalHead;
+	private final int mask, view;
+	/** Structures derived from the map of the team, null for the view of the structures themselves. */
+	private final TeamWorldModel.Derived derived;
+
+	/** Step of the observations written next. */
+	private int step;
+	/** Sequence number of the next change to poll. */
+	private long cursor;
+
+	TeamMapStore(Grid grid, TeamWorldModel.Cells cells, AtomicLongArray journal, AtomicLong journalHead, int view,
+			TeamWorldModel.Derived derived) {
+		this.grid = grid;
+		this.cells = cells;
+		this.journal = journal;
+		this.journalHead = journalHead;
+		this.mask = journal.length() - 1;
+		this.view = view;
+		this.derived = derived;
+		this.step = 0;
+		this.cursor = journalHead.get();
+	}
+
+	@Override
+	public Grid getGrid() {
+		return grid;
+	}
+
+	@Override
+	public char get(int cell) {
+		return TeamWorldModel.CONTENTS[cells.get(cell) & 0xff];
+	}
+
+	/** Writes the cell unless a teammate has seen it in a later step or the cell holds the same observation already. */
+	@Override
+	public boolean set(int cell, char content) {
+		final int previous = cells.write(cell, ((step + 1) << 8) | TeamWorldModel.codeOf(content));
+		if (previous == TeamWorldModel.Cells.NOT_WRITTEN) return false;
+
+		final char previousContent = TeamWorldModel.CONTENTS[previous & 0xff];
+		if (previousContent != content) {
+			final long sequence = journalHead.getAndIncrement();
+			final long flags = (GameMap.isTraversable(previousContent) != GameMap.isTraversable(content)) ? TRAVERSABILITY : 0;
+			journal.set((int) sequence & mask, (sequence << 32) | flags | ((long) view << 24) | cell);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isPassable(int cell) {
+		final char content = get(cell);
+		return content == GameMap.FREE || content == GameMap.FENCE_OPEN;
+	}
+
+	@Override
+	public void setStep(int step) {
+		this.step = step;
+	}
+
+	/** Returns <tt>true</tt>, the cells keep the step they have been seen in last time by any agent of the team. */
+	@Override
+	public boolean isStamped() {
+		return true;
+	}
+
+	/** Keeps the cells, they belong to the team. The model is reset when a new simulation is joined. */
+	@Override
+	public void clear() {
+	}
+
+	/** Returns a snapshot of the cells of the whole team, it waits for the writes in progress and they wait while it is taken. */
+	@Override
+	public MapStore snapshot() {
+		return new Snapshot(grid, cells.snapshot());
+	}
+
+	/**
+	 * Returns the step given cell has been seen in last time by any agent of the team, -1 if it has never been seen. The agents write
+	 * every visible cell in every step (the cells seen unchanged as well), so it is the step of the latest observation.
+	 */
+	public int getLastSeen(int cell) {
+		return (cells.get(cell) >>> 8) - 1;
+	}
+
+	/** Passes the traversability changes written by the teammates since the last poll to given listener, see below. */
+	public int pollChanges(GameMap.CellListener listener) {
+		return pollChanges(listener, null);
+	}
+
+	/**
+	 * Passes the changes written by the teammates since the last poll to given listeners. When the view has fallen behind the journal
+	 * so far that the changes have been overwritten, the listeners are told the whole map has changed.
+	 *
+	 * @param listener        receiver of the traversability changes, usually {@link GameMap#getChangeDispatcher()}
+	 * @param contentListener receiver of all the content changes, usually {@link GameMap#getContentDispatcher()}, it may be null
+	 * @return the number of the traversability changes passed
+	 */
+	public int pollChanges(GameMap.CellListener listener, GameMap.ContentListener contentListener) {
+		final long head = journalHead.get();
+		if (head - cursor > mask + 1) {
+			cursor = head;
+			mapChanged(listener, contentListener);
+			return 0;
+		}
+		int count = 0;
+		while (cursor < head) {
+			final long entry = journal.get((int) cursor & mask);
+			final int sequence = (int) (entry >>> 32);
+			if (sequence != (int) cursor) {
+				if (sequence - (int) cursor > 0) {
+					// overwritten by a later lap
+					cursor = head;
+					mapChanged(listener, contentListener);
+				}
+				// otherwise the change is being written, it is polled next time
+				break;
+			}
+			if ((int) (entry >>> 24 & TeamWorldModel.VIEW_MASK) != view) {
+				final int cell = (int) (entry & TeamWorldModel.CELL_MASK);
+				if ((entry & TRAVERSABILITY) != 0) {
+					listener.traversabilityChanged(cell);
+					count++;
+				}
+				if (contentListener != null) {
+					contentListener.contentChanged(cell);
+				}
+			}
+			cursor++;
+		}
+		return count;
+	}
+
+	/**
+	 * Passes the changes of the whole team to the structures derived from the map of the team, e.g. {@link #getDistanceFields()}. It
+	 * is called after the observations of the agent have been written, so the structures know them when the agent asks.
+	 *
+	 * @param step the current step, the state changes of the fences are recorded with it
+	 */
+	public void sync(int step) {
+		derived.sync(step);
+	}
+
+	/** Returns the distance fields over the map of the team, one instance serves all the agents of the team. */
+	public DistanceFields getDistanceFields() {
+		return derived.getDistanceFields();
+	}
+
+	/** Returns the index of the fences of the map of the team, one instance serves all the agents of the team. */
+	public FenceIndex getFenceIndex() {
+		return derived.getFenceIndex();
+	}
+
+	/** Returns the graph of the regions of the map of the team, one instance serves all the agents of the team. */
+	public RegionGraph getRegionGraph() {
+		return derived.getRegionGraph();
+	}
+
+	/**
+	 * Returns the graph of the clusters of the map of the team, one instance serves the {@link HierarchicalPlanner}s of all the agents
+	 * of the team.
+	 */
+	public ClusterGraph getClusterGraph() {
+		return derived.getClusterGraph();
+	}
+
+	private static void mapChanged(GameMap.CellListener listener, GameMap.ContentListener contentListener) {
+		listener.mapCleared();
+		if (contentListener != null) {
+			contentListener.mapCleared();
+		}
+	}
+
+	/** Snapshot sharing the frozen chunks of the model. */
+	private static final class Snapshot extends ReadOnlyMapStore {
+
+		private final Grid grid;
+		private final AtomicIntegerArray[] chunks;
+
+		Snapshot(Grid grid, AtomicIntegerArray[] chunks) {
+			this.grid = grid;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Grid getGrid() {
+			return grid;
+		}
+
+		@Override
+		public char get(int cell) {
+			return TeamWorldModel.CONTENTS[TeamWorldModel.Cells.get(chunks, cell) & 0xff];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TeamMapStore [view=" + view + ", step=" + step + ", cursor=" + cursor + "]";
+	}
+}
@@ -0,0 +1,254 @@
+package massim.agent.student.game;
+
+import massim.agent.Grid;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * World model shared by the agents of one team running in the same JVM. It keeps one copy of the map cells for the whole team, each
+ * agent reads and writes it through its own {@link TeamMapStore} view, so the memory does not grow with the team size and every agent
+ * knows what its teammates have seen. The structures derived from the map alone are kept once for the team as well.
+ * <p/>
+ * A cell holds its content together with the step it has been seen in and an observation never overwrites a newer one. The reads
+ * take no lock. The writes update the cells by compare-and-set, they do not wait for each other but they hold a shared lock which a
+ * snapshot takes exclusively: the cells are split into chunks which are allocated by the first write into them, shared with the
+ * snapshots and copied on the first write after a snapshot, so a snapshot waits for the writes in progress and the writes wait while
+ * the chunks are frozen. The content changes are appended to a journal the views poll to notify the listeners of their maps (e.g. the
+ * planners).
+ * <p/>
+ * The journal entries keep the cell in 24 bits and the view in 7 bits, so the grid has at most {@link #MAX_CELLS} cells and at most
+ * {@link #MAX_VIEWS} views join one simulation.
+ */
+public class TeamWorldModel {
+
+	/** The content classes, in the order of their codes. */
+	static final char[] CONTENTS = {
+			GameMap.UNKNOWN, GameMap.FREE, GameMap.WALL, GameMap.FENCE, GameMap.FENCE_OPEN, GameMap.SWITCH, GameMap.AGENT
+	};
+
+	/** Mask of the view numbers in the journal entries. */
+	static final int VIEW_MASK = 0x7f;
+	/** Mask of the cells in the journal entries. */
+	static final int CELL_MASK = 0xffffff;
+
+	/** Maximal number of the cells of the grid. */
+	public static final int MAX_CELLS = CELL_MASK + 1;
+	/** Maximal number of the views of one simulation. */
+	public static final int MAX_VIEWS = VIEW_MASK + 1;
+
+	/** Simulation the model belongs to, a new one resets the model. */
+	private String simulationId;
+	private Grid grid;
+	private Cells cells;
+	/** Ring of the content changes, <tt>sequence << 32 | traversability flag << 31 | view << 24 | cell</tt>. */
+	private AtomicLongArray journal;
+	/** Sequence number of the next change of the journal. */
+	private AtomicLong journalHead;
+	private int viewCount;
+	/** Structures derived from the map of the team, they are shared by the views of the simulation. */
+	private Derived derived;
+
+	/**
+	 * Returns a view of the model for one agent. When the agent joins a simulation other than the one of the model or the grid size
+	 * differs, the model is reset and the views of the previous simulation are detached from it.
+	 *
+	 * @param simulationId ID of the simulation, it may be null
+	 * @param width        width of the grid
+	 * @param height       height of the grid
+	 * @return the view for the agent
+	 * @throws IllegalArgumentException if the grid has more than {@link #MAX_CELLS} cells
+	 * @throws IllegalStateException    if {@link #MAX_VIEWS} views have joined the simulation already
+	 */
+	public synchronized TeamMapStore join(String simulationId, int width, int height) {
+		if ((long) width * height > MAX_CELLS) {
+			throw new IllegalArgumentException("grid " + width + "x" + height + " has more than " + MAX_CELLS + " cells");
+		}
+		if (grid == null || grid.getWidth() != width || grid.getHeight() != height
+				|| (simulationId == null ? this.simulationId != null : !simulationId.equals(this.simulationId))) {
+			this.simulationId = simulationId;
+			grid = new Grid(width, height);
+			cells = new Cells(grid.size());
+			final int capacity = Integer.highestOneBit(Math.max(1024, grid.size()) - 1) << 1;
+			journal = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				// the sequences of the previous lap, so no slot looks written
+				journal.set(i, (long) (i - capacity) << 32);
+			}
+			journalHead = new AtomicLong();
+			viewCount = 0;
+			derived = new Derived(new TeamMapStore(grid, cells, journal, journalHead, MAX_VIEWS, null));
+		}
+		if (viewCount == MAX_VIEWS) {
+			throw new IllegalStateException(MAX_VIEWS + " views have joined the simulation already");
+		}
+		return new TeamMapStore(grid, cells, journal, journalHead, viewCount++, derived);
+	}
+
+	/**
+	 * Structures derived from the map of the whole team, one instance of each for the team. They listen to the map over a view of
+	 * their own, it is numbered past the views of the agents, so it polls the changes of all of them. Whichever agent syncs first
+	 * after a change passes it to the structures, the others find the journal polled already. The structures are created when they
+	 * are asked for first time, they read the current cells then.
+	 */
+	static final class Derived {
+
+		private final TeamMapStore view;
+		private final GameMap map;
+		private DistanceFields distanceFields;
+		private FenceIndex fenceIndex;
+		private RegionGraph regionGraph;
+		private ClusterGraph clusterGraph;
+
+		Derived(TeamMapStore view) {
+			this.view = view;
+			this.map = new GameMap(view);
+		}
+
+		/** Passes the changes written since the last sync to the structures, the fence states change in given step. */
+		synchronized void sync(int step) {
+			if (fenceIndex != null) {
+				fenceIndex.setStep(step);
+			}
+			view.pollChanges(map.getChangeDispatcher(), map.getContentDispatcher());
+		}
+
+		synchronized DistanceFields getDistanceFields() {
+			if (distanceFields == null) {
+				distanceFields = new DistanceFields(map);
+			}
+			return distanceFields;
+		}
+
+		synchronized FenceIndex getFenceIndex() {
+			if (fenceIndex == null) {
+				fenceIndex = new FenceIndex(map);
+			}
+			return fenceIndex;
+		}
+
+		synchronized RegionGraph getRegionGraph() {
+			if (regionGraph == null) {
+				regionGraph = new RegionGraph(map, getFenceIndex());
+			}
+			return regionGraph;
+		}
+
+		synchronized ClusterGraph getClusterGraph() {
+			if (clusterGraph == null) {
+				clusterGraph = new ClusterGraph(map);
+			}
+			return clusterGraph;
+		}
+	}
+
+	/**
+	 * The cells of the model, <tt>(step + 1) << 8 | content code</tt>, the step of a never seen cell is -1. The steps must be lower
+	 * than <tt>2^23</tt>.
+	 */
+	static final class Cells {
+
+		/** Value returned by {@link #write(int, int)} when the cell has not been written. */
+		static final int NOT_WRITTEN = -1;
+
+		private static final int CHUNK_BITS = CharMapStore.CHUNK_BITS, CHUNK_MASK = CharMapStore.CHUNK_MASK;
+
+		private final AtomicReferenceArray<Chunk> chunks;
+		/** Snapshot epoch, the chunks of the older epochs are shared with a snapshot. */
+		private volatile int epoch;
+		/** Held shared by the writes and exclusively by the snapshots. */
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/** Constructor of the Cells class, the chunks are allocated when a cell is seen first time. */
+		Cells(int size) {
+			chunks = new AtomicReferenceArray<Chunk>((size + CHUNK_MASK) >>> CHUNK_BITS);
+		}
+
+		int get(int cell) {
+			final Chunk chunk = chunks.get(cell >>> CHUNK_BITS);
+			return (chunk == null) ? 0 : chunk.values.get(cell & CHUNK_MASK);
+		}
+
+		/**
+		 * Writes given value unless the cell has the same value or it has been seen in a later step.
+		 *
+		 * @return the previous value, {@link #NOT_WRITTEN} if the cell has not been written
+		 */
+		int write(int cell, int value) {
+			final int index = cell >>> CHUNK_BITS, offset = cell & CHUNK_MASK;
+			lock.readLock().lock();
+			try {
+				while (true) {
+					Chunk chunk = chunks.get(index);
+					if (chunk == null) {
+						chunk = new Chunk(epoch, new AtomicIntegerArray(CharMapStore.CHUNK_SIZE));
+						if (!chunks.compareAndSet(index, null, chunk)) continue;
+					} else if (chunk.epoch != epoch) {
+						// shared with a snapshot, nobody writes it any more
+						final Chunk copy = new Chunk(epoch, new AtomicIntegerArray(chunk.values.length()));
+						for (int i = 0; i < chunk.values.length(); i++) {
+							copy.values.lazySet(i, chunk.values.get(i));
+						}
+						if (!chunks.compareAndSet(index, chunk, copy)) continue;
+						chunk = copy;
+					}
+					final int previous = chunk.values.get(offset);
+					if (previous == value || (previous >>> 8) > (value >>> 8)) return NOT_WRITTEN;
+					if (chunk.values.compareAndSet(offset, previous, value)) return previous;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/** Freezes the current chunks and returns them, the later writes copy them. The never written chunks are null. */
+		AtomicIntegerArray[] snapshot() {
+			final AtomicIntegerArray[] frozen = new AtomicIntegerArray[chunks.length()];
+			lock.writeLock().lock();
+			try {
+				epoch++;
+				for (int i = 0; i < frozen.length; i++) {
+					final Chunk chunk = chunks.get(i);
+					if (chunk != null) frozen[i] = chunk.values;
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+			return frozen;
+		}
+
+		/** Returns the value of given cell of the frozen chunks. */
+		static int get(AtomicIntegerArray[] frozen, int cell) {
+			final AtomicIntegerArray chunk = frozen[cell >>> CHUNK_BITS];
+			return (chunk == null) ? 0 : chunk.get(cell & CHUNK_MASK);
+		}
+	}
+
+	/** Chunk of the cells with the epoch it has been created in. */
+	private static final class Chunk {
+
+		final int epoch;
+		final AtomicIntegerArray values;
+
+		Chunk(int epoch, AtomicIntegerArray values) {
+			this.epoch = epoch;
+			this.values = values;
+		}
+	}
+
+	/** Returns the code of given content. */
+	static int codeOf(char content) {
+		for (int i = 0; i < CONTENTS.length; i++) {
+			if (CONTENTS[i] == content) return i;
+		}
+		throw new IllegalArgumentException("unknown content '" + content + "'");
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TeamWorldModel [simulationId=" + simulationId + ", grid=" + grid + ", views=" + viewCount + "]";
+	}
+}
@@ -0,0 +1,303 @@
+package massim.server;
+
+import massim.agent.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The grid environment of one simulation: obstacles, straight fences with their switches and the agents. A fence is open while some
+ * agent stands next to its switch, otherwise it is closed.
+ */
+public class GridWorld {
+
+	/** Static cells content constants. */
+	public static final char FREE = ' ', OBSTACLE = '#', FENCE = '+', SWITCH = '%';
+
+	/** A fence with its switch. */
+	private static final class FenceLine {
+		final int switchX, switchY;
+		final int[] cellsX, cellsY;
+		boolean open;
+
+		FenceLine(int switchX, int switchY, int[] cellsX, int[] cellsY) {
+			this.switchX = switchX;
+			this.switchY = switchY;
+			this.cellsX = cellsX;
+			this.cellsY = cellsY;
+			this.open = false;
+		}
+	}
+
+	/** Size of the grid from the assignment. */
+	public static final int DEFAULT_SIZE = 30;
+
+	private final int width, height, lineOfSight;
+	private final char[][] cells;
+	/** Index of the fence occupying a cell, -1 if none. */
+	private final int[][] fenceAt;
+	private final List<FenceLine> fences;
+
+	/** Positions of the agents and the agent occupying a cell (-1 if none). */
+	private final int[] agentX, agentY;
+	private final int[][] agentAt;
+
+	/** Reusable order of the agents' moves. */
+	private final int[] order;
+
+	/** Constructor of the GridWorld class. */
+	public GridWorld(int width, int height, int lineOfSight, int nAgents) {
+		this.width = width;
+		this.height = height;
+		this.lineOfSight = lineOfSight;
+		this.cells = new char[width][height];
+		this.fenceAt = new int[width][height];
+		this.fences = new ArrayList<FenceLine>();
+		this.agentX = new int[nAgents];
+		this.agentY = new int[nAgents];
+		this.agentAt = new int[width][height];
+		this.order = new int[nAgents];
+		for (int x = 0; x < width; x++) {
+			Arrays.fill(cells[x], FREE);
+			Arrays.fill(fenceAt[x], -1);
+			Arrays.fill(agentAt[x], -1);
+		}
+		Arrays.fill(agentX, -1);
+		Arrays.fill(agentY, -1);
+		for (int i = 0; i < nAgents; i++) {
+			order[i] = i;
+		}
+	}
+
+	/**
+	 * Creates the environment from the assignment: 30x30 grid surrounded by obstacles with a blocked central area and four fences
+	 * connecting the inner and outer square, their switches at the outer border. The agents start in the south-west corner.
+	 */
+	public static GridWorld createDefault(int nAgents, int lineOfSight) {
+		return createScaled(DEFAULT_SIZE, nAgents, lineOfSight);
+	}
+
+	/** Creates the environment from the assignment scaled to a square grid of given size. */
+	public static GridWorld createScaled(int size, int nAgents, int lineOfSight) {
+		final GridWorld world = new GridWorld(size, size, lineOfSight, nAgents);
+		final int last = size - 1, center = size / 2;
+		world.addObstacle(0, 0, last, 0);
+		world.addObstacle(0, last, last, last);
+		world.addObstacle(0, 0, 0, last);
+		world.addObstacle(last, 0, last, last);
+		world.addObstacle(size / 3, size / 3, last - size / 3, last - size / 3);
+
+		world.addFence(1, center - 2, Action.EAST);
+		world.addFence(center + 1, 1, Action.SOUTH);
+		world.addFence(last - 1, center + 1, Action.WEST);
+		world.addFence(center - 2, last - 1, Action.NORTH);
+
+		for (int i = 0; i < nAgents; i++) {
+			world.placeAgent(i, 3 + (i % 4), last - 3 - (i / 4) % 8);
+		}
+		return world;
+	}
+
+	/** Fills given rectangle (inclusive) with obstacles. */
+	public void addObstacle(int x0, int y0, int x1, int y1) {
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				cells[x][y] = OBSTACLE;
+			}
+		}
+	}
+
+	/** Adds a switch at given position with a fence going from it in given direction until an obstacle is reached. */
+	public void addFence(int switchX, int switchY, Action direction) {
+		final int dx = getDeltaX(direction), dy = getDeltaY(direction);
+		int length = 0;
+		for (int x = switchX + dx, y = switchY + dy; isInside(x, y) && cells[x][y] == FREE; x += dx, y += dy) {
+			length++;
+		}
+		final int[] cellsX = new int[length], cellsY = new int[length];
+		for (int i = 0; i < length; i++) {
+			cellsX[i] = switchX + (i + 1) * dx;
+			cellsY[i] = switchY + (i + 1) * dy;
+			cells[cellsX[i]][cellsY[i]] = FENCE;
+			fenceAt[cellsX[i]][cellsY[i]] = fences.size();
+		}
+		cells[switchX][switchY] = SWITCH;
+		fences.add(new FenceLine(switchX, switchY, cellsX, cellsY));
+	}
+
+	/** Places given agent at given position. */
+	public void placeAgent(int agent, int x, int y) {
+		if (agentX[agent] >= 0) {
+			agentAt[agentX[agent]][agentY[agent]] = -1;
+		}
+		agentX[agent] = x;
+		agentY[agent] = y;
+		agentAt[x][y] = agent;
+		updateFences();
+	}
+
+	/**
+	 * Performs one simulation step, the agents move in random order. A move is performed when the target cell is inside the grid,
+	 * contains no obstacle, switch, closed fence nor other agent.
+	 *
+	 * @param actions actions of the agents, null is the same as skip
+	 * @param random  random generator of the moves order
+	 */
+	public void step(Action[] actions, Random random) {
+		for (int i = order.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		for (int agent : order) {
+			final Action action = actions[agent];
+			if (action == null || action == Action.SKIP || agentX[agent] < 0) continue;
+			final int x = agentX[agent] + getDeltaX(action), y = agentY[agent] + getDeltaY(action);
+			if (isPassable(x, y)) {
+				agentAt[agentX[agent]][agentY[agent]] = -1;
+				agentX[agent] = x;
+				agentY[agent] = y;
+				agentAt[x][y] = agent;
+			}
+		}
+		updateFences();
+	}
+
+	/**
+	 * Appends the <code>request-action</code> message for given agent, without the terminating zero.
+	 *
+	 * @param sb        the output
+	 * @param agent     the agent
+	 * @param id        id of the request
+	 * @param step      the simulation step
+	 * @param timestamp server time of the request
+	 * @param deadline  server time the agent has to answer by
+	 */
+	public void appendRequestAction(StringBuilder sb, int agent, String id, int step, long timestamp, long deadline) {
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><message timestamp=\"").append(timestamp)
+				.append("\" type=\"request-action\"><perception cowsInCorral=\"0\" deadline=\"").append(deadline)
+				.append("\" id=\"").append(id)
+				.append("\" posx=\"").append(agentX[agent])
+				.append("\" posy=\"").append(agentY[agent])
+				.append("\" score=\"0\" step=\"").append(step).append("\">");
+		appendCells(sb, agent);
+		sb.append("</perception></message>");
+	}
+
+	/**
+	 * Appends the <code>cell</code> elements visible by given agent.
+	 *
+	 * @param sb    the output
+	 * @param agent the agent
+	 */
+	public void appendCells(StringBuilder sb, int agent) {
+		final int ax = agentX[agent], ay = agentY[agent];
+		for (int dx = -lineOfSight; dx <= lineOfSight; dx++) {
+			final int x = ax + dx;
+			if (x < 0 || x >= width) continue;
+			for (int dy = -lineOfSight; dy <= lineOfSight; dy++) {
+				final int y = ay + dy;
+				if (y < 0 || y >= height) continue;
+
+				sb.append("<cell x=\"").append(dx).append("\" y=\"").append(dy).append("\">");
+				boolean empty = true;
+				if (agentAt[x][y] >= 0) {
+					sb.append("<agent type=\"ally\"/>");
+					empty = false;
+				}
+				switch (cells[x][y]) {
+					case OBSTACLE:
+						sb.append("<obstacle/>");
+						empty = false;
+						break;
+					case SWITCH:
+						sb.append("<switch/>");
+						empty = false;
+						break;
+					case FENCE:
+						sb.append(fences.get(fenceAt[x][y]).open ? "<fence open=\"true\"/>" : "<fence open=\"false\"/>");
+						empty = false;
+						break;
+					default:
+				}
+				if (empty) {
+					sb.append("<empty/>");
+				}
+				sb.append("</cell>");
+			}
+		}
+	}
+
+	/** Returns <tt>true</tt> IFF an agent can enter given cell. */
+	public boolean isPassable(int x, int y) {
+		if (!isInside(x, y) || agentAt[x][y] >= 0) return false;
+		switch (cells[x][y]) {
+			case FREE: return true;
+			case FENCE: return fences.get(fenceAt[x][y]).open;
+			default: return false;
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLineOfSight() {
+		return lineOfSight;
+	}
+
+	public int getAgentX(int agent) {
+		return agentX[agent];
+	}
+
+	public int getAgentY(int agent) {
+		return agentY[agent];
+	}
+
+	/** Returns the static content of given cell. */
+	public char get(int x, int y) {
+		return cells[x][y];
+	}
+
+	/** Opens the fences having some agent next to their switch and closes the others. */
+	private void updateFences() {
+		for (FenceLine fence : fences) {
+			fence.open = false;
+			for (int x = fence.switchX - 1; x <= fence.switchX + 1 && !fence.open; x++) {
+				for (int y = fence.switchY - 1; y <= fence.switchY + 1; y++) {
+					if (isInside(x, y) && agentAt[x][y] >= 0) {
+						fence.open = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isInside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	private static int getDeltaX(Action action) {
+		switch (action) {
+			case EAST: case NORTHEAST: case SOUTHEAST: return 1;
+			case WEST: case NORTHWEST: case SOUTHWEST: return -1;
+			default: return 0;
+		}
+	}
+
+	private static int getDeltaY(Action action) {
+		switch (action) {
+			case SOUTH: case SOUTHEAST: case SOUTHWEST: return 1;
+			case NORTH: case NORTHEAST: case NORTHWEST: return -1;
+			default: return 0;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package massim.server;
+
+import massim.agent.AgentRuntime;
+import massim.agent.MASAgent;
+import massim.agent.SelectorTransport;
+import massim.agent.StartAgents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the agent stack. It starts the stand-in server in-process, connects the given number of teams over the
+ * selector transport and reports the steps per second, the response latency percentiles and the missed deadlines. With 0 event loops
+ * the agents run their blocking threads on the {@link AgentRuntime} instead.
+ * <p/>
+ * Usage: <tt>LoadTest [teams] [steps] [eventLoops] [stepTimeoutMillis] [gridSize]</tt>
+ */
+public class LoadTest {
+
+	/** Number of the agents in one team. */
+	private static final int TEAM_SIZE = 3;
+	/** Visibility range of the agents. */
+	private static final int LINE_OF_SIGHT = 8;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int teams = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+		final int steps = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		final int loops = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final long stepTimeout = (args.length > 3) ? Long.parseLong(args[3]) : 2000;
+		final int gridSize = (args.length > 4) ? Integer.parseInt(args[4]) : GridWorld.DEFAULT_SIZE;
+
+		final StandInServer server = new StandInServer(0, TEAM_SIZE, steps, stepTimeout, LINE_OF_SIGHT, gridSize);
+		server.start();
+
+		final SelectorTransport transport = (loops > 0) ? new SelectorTransport(loops) : null;
+		final AgentRuntime runtime = (loops > 0) ? null : new AgentRuntime();
+		final List<MASAgent> agents = new ArrayList<MASAgent>(teams * TEAM_SIZE);
+		final long start = System.nanoTime();
+		for (int team = 0; team < teams; team++) {
+			if (transport != null) {
+				agents.addAll(StartAgents.startAgents("localhost", server.getPort(), TEAM_SIZE, "t" + team, transport));
+			} else {
+				agents.addAll(StartAgents.startAgents("localhost", server.getPort(), TEAM_SIZE, "t" + team, runtime));
+			}
+		}
+		if (transport != null) {
+			transport.setShutdownWhenIdle(true);
+		} else {
+			runtime.shutdown();
+		}
+
+		final boolean finished = server.awaitSimulations(teams, (steps + 10) * stepTimeout);
+		final long elapsed = System.nanoTime() - start;
+		if (transport != null) {
+			transport.awaitTermination();
+		} else {
+			runtime.shutdownNow();
+			runtime.awaitTermination(stepTimeout, TimeUnit.MILLISECONDS);
+		}
+		server.stop();
+
+		long fallbacks = 0, minSlack = Long.MAX_VALUE;
+		for (MASAgent agent : agents) {
+			fallbacks += agent.getStepClock().getMissed();
+			minSlack = Math.min(minSlack, agent.getStepClock().getMinSlack());
+		}
+
+		System.out.println("agents=" + agents.size() + " teams=" + teams + " steps=" + steps + " gridSize=" + gridSize + " eventLoops=" + loops
+				+ (runtime != null ? " virtualThreads=" + runtime.isVirtual() : "")
+				+ " finished=" + finished + " wallMs=" + elapsed / 1000000);
+		System.out.println(server.getStats());
+		System.out.println("agent fallbacks=" + fallbacks + " minSlackMs=" + minSlack);
+	}
+}
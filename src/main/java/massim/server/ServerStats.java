@@ -0,0 +1,101 @@
+package massim.server;
+
+import java.util.Arrays;
+
+/**
+ * Statistics collected by the stand-in server: the number of steps, the response latencies and the missed deadlines.
+ */
+public class ServerStats {
+
+	/** Number of the requests sent to the agents. */
+	private long requests;
+	/** Number of the requests answered in time. */
+	private long replies;
+	/** Number of the requests not answered before the deadline. */
+	private long missed;
+	/** Number of the simulation steps performed. */
+	private long steps;
+	/** Number of the finished simulations. */
+	private long simulations;
+
+	/** Response latencies in microseconds. */
+	private long[] latencies;
+	private int latencyCount;
+
+	private long startNanos, endNanos;
+
+	/** Constructor of the ServerStats class. */
+	public ServerStats() {
+		latencies = new long[1024];
+		startNanos = endNanos = 0;
+	}
+
+	synchronized void onRequest() {
+		if (startNanos == 0) startNanos = System.nanoTime();
+		requests++;
+	}
+
+	synchronized void onReply(long latencyNanos) {
+		replies++;
+		if (latencyCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencyCount * 2);
+		}
+		latencies[latencyCount++] = latencyNanos / 1000;
+	}
+
+	synchronized void onMissed() {
+		missed++;
+	}
+
+	synchronized void onStep() {
+		steps++;
+		endNanos = System.nanoTime();
+	}
+
+	synchronized void onSimulationEnd() {
+		simulations++;
+	}
+
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	public synchronized long getReplies() {
+		return replies;
+	}
+
+	public synchronized long getMissed() {
+		return missed;
+	}
+
+	public synchronized long getSteps() {
+		return steps;
+	}
+
+	public synchronized long getSimulations() {
+		return simulations;
+	}
+
+	/** Returns the number of agent steps (answered requests) per second. */
+	public synchronized double getAgentStepsPerSecond() {
+		final long nanos = endNanos - startNanos;
+		return (nanos <= 0) ? 0 : replies * 1e9 / nanos;
+	}
+
+	/** Returns the response latency percentile in microseconds, <tt>p</tt> is from the interval [0, 1]. */
+	public synchronized long getLatencyPercentile(double p) {
+		if (latencyCount == 0) return 0;
+		final long[] sorted = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(sorted);
+		final int index = (int) Math.ceil(p * latencyCount) - 1;
+		return sorted[Math.max(0, Math.min(latencyCount - 1, index))];
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ServerStats [simulations=" + simulations + ", steps=" + steps + ", requests=" + requests + ", replies=" + replies
+				+ ", missed=" + missed + ", agentStepsPerSecond=" + Math.round(getAgentStepsPerSecond())
+				+ ", latencyUs(p50=" + getLatencyPercentile(0.5) + ", p99=" + getLatencyPercentile(0.99)
+				+ ", p999=" + getLatencyPercentile(0.999) + ", max=" + getLatencyPercentile(1.0) + ")]";
+	}
+}
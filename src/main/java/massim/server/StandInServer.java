@@ -0,0 +1,462 @@
+package massim.server;
+
+import massim.agent.Action;
+import massim.agent.FrameReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Local stand-in for the MASSim server. It speaks the same zero-terminated XML protocol (<code>auth-request</code>,
+ * <code>sim-start</code>, <code>request-action</code>, <code>sim-end</code>) and serves the environment from the assignment.
+ * <p/>
+ * All the connections are served by one selector thread. The authenticated agents are grouped into teams by the part of the username
+ * before the '-' character (agents without it form one team), every full team plays its own simulation in its own world. A step ends
+ * when all the agents have answered or when the deadline has passed, so the simulations run as fast as the agents are able to play.
+ * <p/>
+ * Usage: <tt>StandInServer [port] [steps] [gridSize]</tt>
+ */
+public class StandInServer implements Runnable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+	/** Connection of one agent. */
+	private final class Client {
+		final SocketChannel channel;
+		final SelectionKey key;
+		final FrameReader frameReader = new FrameReader();
+		final Queue<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+
+		String username;
+		Match match;
+		int index;
+		boolean closeWhenWritten;
+
+		Client(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+	}
+
+	/** One running simulation. */
+	private final class Match {
+		final String id;
+		final Client[] clients;
+		final GridWorld world;
+		final Action[] actions;
+		final Random random;
+
+		int step;
+		String requestId;
+		long deadline;
+		long sentNanos;
+		int replied;
+
+		Match(String id, List<Client> team) {
+			this.id = id;
+			this.clients = team.toArray(new Client[team.size()]);
+			this.world = GridWorld.createScaled(gridSize, clients.length, lineOfSight);
+			this.actions = new Action[clients.length];
+			this.random = new Random(id.hashCode());
+			this.step = 0;
+		}
+	}
+
+	private final int teamSize;
+	private final int steps;
+	private final long stepTimeout;
+	private final int lineOfSight;
+	private final int gridSize;
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final XMLInputFactory inputFactory;
+	private final StringBuilder output;
+
+	private final Map<String, List<Client>> lobby;
+	private final List<Match> matches;
+	private final ServerStats stats;
+
+	private int matchCounter;
+	private long requestCounter;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Constructor of the StandInServer class, it binds the server socket.
+	 *
+	 * @param port        port to listen on, 0 for any free port
+	 * @param teamSize    number of the agents in one simulation
+	 * @param steps       number of steps of one simulation
+	 * @param stepTimeout time the agents have to answer one request, in milliseconds
+	 * @param lineOfSight visibility range of the agents
+	 * @throws java.io.IOException When the server socket cannot be bound.
+	 */
+	public StandInServer(int port, int teamSize, int steps, long stepTimeout, int lineOfSight) throws IOException {
+		this(port, teamSize, steps, stepTimeout, lineOfSight, GridWorld.DEFAULT_SIZE);
+	}
+
+	/**
+	 * Constructor of the StandInServer class, it binds the server socket.
+	 *
+	 * @param port        port to listen on, 0 for any free port
+	 * @param teamSize    number of the agents in one simulation
+	 * @param steps       number of steps of one simulation
+	 * @param stepTimeout time the agents have to answer one request, in milliseconds
+	 * @param lineOfSight visibility range of the agents
+	 * @param gridSize    size of the square grid the environment from the assignment is scaled to
+	 * @throws java.io.IOException When the server socket cannot be bound.
+	 */
+	public StandInServer(int port, int teamSize, int steps, long stepTimeout, int lineOfSight, int gridSize) throws IOException {
+		this.teamSize = teamSize;
+		this.steps = steps;
+		this.stepTimeout = stepTimeout;
+		this.lineOfSight = lineOfSight;
+		this.gridSize = gridSize;
+
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.socket().setReuseAddress(true);
+		this.serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+		this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		this.inputFactory = XMLInputFactory.newInstance();
+		this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		this.output = new StringBuilder(16 * 1024);
+
+		this.lobby = new HashMap<String, List<Client>>();
+		this.matches = new ArrayList<Match>();
+		this.stats = new ServerStats();
+		this.matchCounter = 0;
+		this.requestCounter = 0;
+	}
+
+	/** Returns the port the server listens on. */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/** Returns the statistics of the server. */
+	public ServerStats getStats() {
+		return stats;
+	}
+
+	/** Starts the server thread. */
+	public synchronized void start() {
+		if (thread != null) return;
+		running = true;
+		thread = new Thread(this, "stand-in-server");
+		thread.start();
+	}
+
+	/** Stops the server thread and closes all the connections. */
+	public void stop() throws InterruptedException {
+		running = false;
+		selector.wakeup();
+		if (thread != null) thread.join();
+	}
+
+	/**
+	 * Waits until given number of simulations has finished.
+	 *
+	 * @return false when the timeout has elapsed before
+	 */
+	public boolean awaitSimulations(long count, long timeoutMillis) throws InterruptedException {
+		final long end = System.currentTimeMillis() + timeoutMillis;
+		synchronized (stats) {
+			while (stats.getSimulations() < count) {
+				final long left = end - System.currentTimeMillis();
+				if (left <= 0) return false;
+				stats.wait(left);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(getSelectTimeout());
+
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						final Client client = (Client) key.attachment();
+						try {
+							if (key.isReadable()) read(client);
+							if (key.isValid() && key.isWritable()) write(client);
+						} catch (IOException e) {
+							close(client);
+						}
+					}
+				}
+
+				checkDeadlines();
+			}
+		} catch (IOException e) {
+			System.err.println("IOException in the stand-in server");
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private long getSelectTimeout() {
+		long nearest = Long.MAX_VALUE;
+		for (Match match : matches) {
+			nearest = Math.min(nearest, match.deadline);
+		}
+		if (nearest == Long.MAX_VALUE) return 0;
+		return Math.max(1, nearest - System.currentTimeMillis());
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Client(channel, key));
+		}
+	}
+
+	private void read(Client client) throws IOException {
+		if (client.frameReader.fill(client.channel) < 0) {
+			close(client);
+			return;
+		}
+		while (client.key.isValid() && client.frameReader.next()) {
+			final FrameReader frame = client.frameReader;
+			try {
+				onPacket(client, frame.getBuffer(), frame.getFrameOffset(), frame.getFrameLength());
+			} catch (XMLStreamException e) {
+				System.err.println("malformed message from " + client.username);
+			}
+		}
+	}
+
+	private void onPacket(Client client, byte[] data, int offset, int length) throws XMLStreamException {
+		final XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(data, offset, length));
+		try {
+			if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) return;
+			final String type = reader.getAttributeValue(null, "type");
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				if ("auth-request".equals(type) && "authentication".equals(reader.getLocalName())) {
+					onAuthentication(client, reader.getAttributeValue(null, "username"));
+					return;
+				}
+				if ("action".equals(type) && "action".equals(reader.getLocalName())) {
+					onAction(client, reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "type"));
+					return;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void onAuthentication(Client client, String username) {
+		if (client.username != null || username == null) return;
+		client.username = username;
+
+		output.setLength(0);
+		output.append(XML_HEADER).append("<message timestamp=\"").append(System.currentTimeMillis())
+				.append("\" type=\"auth-response\"><authentication result=\"ok\"/></message>");
+		send(client);
+
+		final int separator = username.indexOf('-');
+		final String team = (separator < 0) ? "" : username.substring(0, separator);
+		List<Client> members = lobby.get(team);
+		if (members == null) {
+			members = new ArrayList<Client>(teamSize);
+			lobby.put(team, members);
+		}
+		members.add(client);
+		if (members.size() == teamSize) {
+			lobby.remove(team);
+			startMatch(members);
+		}
+	}
+
+	private void onAction(Client client, String id, String type) {
+		final Match match = client.match;
+		if (match == null || id == null || !id.equals(match.requestId) || match.actions[client.index] != null) return;
+
+		Action action;
+		try {
+			action = Action.valueOf(type.toUpperCase(Locale.ENGLISH));
+		} catch (RuntimeException e) {
+			action = Action.SKIP;
+		}
+		match.actions[client.index] = action;
+		match.replied++;
+		stats.onReply(System.nanoTime() - match.sentNanos);
+
+		if (match.replied == match.clients.length) {
+			finishStep(match);
+		}
+	}
+
+	private void startMatch(List<Client> team) {
+		final Match match = new Match("stand-in-" + (matchCounter++), team);
+		for (int i = 0; i < match.clients.length; i++) {
+			final Client client = match.clients[i];
+			client.match = match;
+			client.index = i;
+
+			output.setLength(0);
+			output.append(XML_HEADER).append("<message timestamp=\"").append(System.currentTimeMillis())
+					.append("\" type=\"sim-start\"><simulation gsizex=\"").append(match.world.getWidth())
+					.append("\" gsizey=\"").append(match.world.getHeight())
+					.append("\" id=\"").append(match.id)
+					.append("\" lineOfSight=\"").append(match.world.getLineOfSight())
+					.append("\" steps=\"").append(steps).append("\"/></message>");
+			send(client);
+		}
+		matches.add(match);
+		sendRequests(match);
+	}
+
+	private void sendRequests(Match match) {
+		final long now = System.currentTimeMillis();
+		match.requestId = Long.toString(requestCounter++);
+		match.deadline = now + stepTimeout;
+		match.replied = 0;
+		for (int i = 0; i < match.actions.length; i++) {
+			match.actions[i] = null;
+		}
+
+		match.sentNanos = System.nanoTime();
+		for (Client client : match.clients) {
+			if (!client.key.isValid()) continue;
+			output.setLength(0);
+			match.world.appendRequestAction(output, client.index, match.requestId, match.step, now, match.deadline);
+			send(client);
+			stats.onRequest();
+		}
+	}
+
+	private void finishStep(Match match) {
+		for (int i = 0; i < match.actions.length; i++) {
+			if (match.actions[i] == null) stats.onMissed();
+		}
+		match.world.step(match.actions, match.random);
+		match.step++;
+		stats.onStep();
+
+		if (match.step < steps) {
+			sendRequests(match);
+		} else {
+			endMatch(match);
+		}
+	}
+
+	private void endMatch(Match match) {
+		matches.remove(match);
+		for (Client client : match.clients) {
+			if (!client.key.isValid()) continue;
+			output.setLength(0);
+			output.append(XML_HEADER).append("<message timestamp=\"").append(System.currentTimeMillis())
+					.append("\" type=\"sim-end\"><sim-result ranking=\"1\" score=\"0\"/></message>");
+			send(client);
+			client.closeWhenWritten = true;
+			if (client.writeQueue.isEmpty()) close(client);
+		}
+		synchronized (stats) {
+			stats.onSimulationEnd();
+			stats.notifyAll();
+		}
+	}
+
+	private void checkDeadlines() {
+		final long now = System.currentTimeMillis();
+		for (Match match : new ArrayList<Match>(matches)) {
+			if (now >= match.deadline) {
+				finishStep(match);
+			}
+		}
+	}
+
+	/** Sends the content of the output buffer terminated by zero. */
+	private void send(Client client) {
+		output.append('\0');
+		client.writeQueue.add(ByteBuffer.wrap(output.toString().getBytes(UTF_8)));
+		try {
+			write(client);
+		} catch (IOException e) {
+			close(client);
+		}
+	}
+
+	private void write(Client client) throws IOException {
+		while (!client.writeQueue.isEmpty()) {
+			final ByteBuffer data = client.writeQueue.peek();
+			client.channel.write(data);
+			if (data.hasRemaining()) break;
+			client.writeQueue.poll();
+		}
+		if (client.writeQueue.isEmpty() && client.closeWhenWritten) {
+			close(client);
+		} else if (client.key.isValid()) {
+			client.key.interestOps(client.writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void close(Client client) {
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		client.writeQueue.clear();
+	}
+
+	/** Starts the server with the assignment environment for the default team of three agents. */
+	public static void main(String[] args) throws IOException {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : 12300;
+		final int steps = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		final int gridSize = (args.length > 2) ? Integer.parseInt(args[2]) : GridWorld.DEFAULT_SIZE;
+		new StandInServer(port, 3, steps, 2000, 8, gridSize).start();
+	}
+}